@@ -1,10 +1,16 @@
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.JFileChooser;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import transformations.TaskMonitor;
+
 
 /**
  * This class represents a controller that operates the GUI. This controller contains a model and a
@@ -31,9 +37,21 @@ class ControllerButtons {
    * This is a private controller impl class, which adds anther layer of abstraction.
    * This prevents a features object from being cast as a controller, and
    * gaining access to the Controller methods.
+   *
+   * <p>Every operation on the model is submitted to the model's worker thread, so the window
+   * stays responsive while it runs, and only the finished image is posted back to the event
+   * dispatch thread to be displayed. Input is read from the view before an operation is
+   * submitted. Clicking a transformation again while it is still running cancels the one
+   * running, so only the latest click is carried out. Every other operation, and a
+   * transformation of another kind, waits for the ones before it instead.
    */
   private static class FeatureImpl implements Features {
 
+    /**
+     * How often the progress of a running operation is displayed, in milliseconds.
+     */
+    private static final int PROGRESS_DELAY = 100;
+
     private final Model model;
     private final View view;
 
@@ -58,9 +76,7 @@ class ControllerButtons {
       int returnValue = fileChooser.showOpenDialog(view);
       if (returnValue == JFileChooser.APPROVE_OPTION) {
         File file = fileChooser.getSelectedFile();
-        model.load(file.getName());
-        updateDisplay();
-        view.setAllInvisible();
+        enqueue(() -> model.load(file.getName()), view::setAllInvisible);
       }
     }
 
@@ -70,16 +86,13 @@ class ControllerButtons {
      */
     @Override
     public void saveImage() {
-      try {
-        final JFileChooser fileChooser = new JFileChooser(".");
+      final JFileChooser fileChooser = new JFileChooser(".");
 
-        int returnValue = fileChooser.showSaveDialog(view);
-        if (returnValue == JFileChooser.APPROVE_OPTION) {
-          File file = fileChooser.getSelectedFile();
-          model.save(file.getName() + ".png");
-        }
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
+      int returnValue = fileChooser.showSaveDialog(view);
+      if (returnValue == JFileChooser.APPROVE_OPTION) {
+        File file = fileChooser.getSelectedFile();
+        display(model.enqueue(() -> model.save(file.getName() + ".png"), new TaskMonitor()),
+                null, () -> { });
       }
     }
 
@@ -90,12 +103,7 @@ class ControllerButtons {
      */
     @Override
     public void greyscale() {
-      try {
-        model.greyScale();
-        updateDisplay();
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
-      }
+      submit("greyscale", model::greyScale, () -> { });
     }
 
 
@@ -106,12 +114,7 @@ class ControllerButtons {
      */
     @Override
     public void sepia() {
-      try {
-        model.sepia();
-        updateDisplay();
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
-      }
+      submit("sepia", model::sepia, () -> { });
     }
 
     /**
@@ -121,12 +124,7 @@ class ControllerButtons {
      */
     @Override
     public void blur() {
-      try {
-        model.blur();
-        updateDisplay();
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
-      }
+      submit("blur", model::blur, () -> { });
     }
 
     /**
@@ -136,12 +134,7 @@ class ControllerButtons {
      */
     @Override
     public void sharpen() {
-      try {
-        model.sharpen();
-        updateDisplay();
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
-      }
+      submit("sharpen", model::sharpen, () -> { });
     }
 
     /**
@@ -151,12 +144,7 @@ class ControllerButtons {
      */
     @Override
     public void dither() {
-      try {
-        model.dither();
-        updateDisplay();
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
-      }
+      submit("dither", model::dither, () -> { });
     }
 
     /**
@@ -167,11 +155,8 @@ class ControllerButtons {
     @Override
     public void mosaic() {
       try {
-        model.mosaic(view.getSeedNum());
-        updateDisplay();
-        view.setAllInvisible();
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
+        int seeds = view.getSeedNum();
+        submit("mosaic", () -> model.mosaic(seeds), view::setAllInvisible);
       } catch (IllegalArgumentException a) {
         view.displayError(a.getMessage());
       }
@@ -184,10 +169,11 @@ class ControllerButtons {
     @Override
     public void generateCheckerboard() {
       try {
-        model.generateCheckerBoard(view.getWidthField(), view.getHeightField()
-                , view.getSquareField());
-        updateDisplay();
-        view.setAllInvisible();
+        int width = view.getWidthField();
+        int height = view.getHeightField();
+        int squareSize = view.getSquareField();
+        enqueue(() -> model.generateCheckerBoard(width, height, squareSize),
+                view::setAllInvisible);
       } catch (IllegalArgumentException e) {
         view.displayError(e.getMessage());
       }
@@ -201,9 +187,8 @@ class ControllerButtons {
     @Override
     public void generateGreece() {
       try {
-        model.generateGreece(view.getHeightField());
-        updateDisplay();
-        view.setAllInvisible();
+        int height = view.getHeightField();
+        enqueue(() -> model.generateGreece(height), view::setAllInvisible);
       } catch (IllegalArgumentException e) {
         view.displayError(e.getMessage());
       }
@@ -216,9 +201,8 @@ class ControllerButtons {
     @Override
     public void generateSwiss() {
       try {
-        model.generateSwiss(view.getHeightField());
-        updateDisplay();
-        view.setAllInvisible();
+        int height = view.getHeightField();
+        enqueue(() -> model.generateSwiss(height), view::setAllInvisible);
       } catch (IllegalArgumentException e) {
         view.displayError(e.getMessage());
       }
@@ -231,9 +215,8 @@ class ControllerButtons {
     @Override
     public void generateFrance() {
       try {
-        model.generateFrance(view.getHeightField());
-        updateDisplay();
-        view.setAllInvisible();
+        int height = view.getHeightField();
+        enqueue(() -> model.generateFrance(height), view::setAllInvisible);
       } catch (IllegalArgumentException e) {
         view.displayError(e.getMessage());
       }
@@ -246,8 +229,9 @@ class ControllerButtons {
     @Override
     public void generateHorizontalRainbow() {
       try {
-        model.generateHorizontalRainbow(view.getWidthField(), view.getHeightField());
-        updateDisplay();
+        int width = view.getWidthField();
+        int height = view.getHeightField();
+        enqueue(() -> model.generateHorizontalRainbow(width, height), () -> { });
       } catch (IllegalArgumentException e) {
         view.displayError(e.getMessage());
       }
@@ -260,8 +244,9 @@ class ControllerButtons {
     @Override
     public void generateVerticalRainbow() {
       try {
-        model.generateVerticalRainbow(view.getWidthField(), view.getHeightField());
-        updateDisplay();
+        int width = view.getWidthField();
+        int height = view.getHeightField();
+        enqueue(() -> model.generateVerticalRainbow(width, height), () -> { });
       } catch (IllegalArgumentException e) {
         view.displayError(e.getMessage());
       }
@@ -330,13 +315,7 @@ class ControllerButtons {
      */
     @Override
     public void undoImage() {
-      try {
-        model.undoImage();
-        updateDisplay();
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
-      }
-
+      display(model.enqueue(model::undoImage, new TaskMonitor()), null, () -> { });
     }
 
     /**
@@ -345,13 +324,7 @@ class ControllerButtons {
      */
     @Override
     public void redoImage() {
-      try {
-        model.redoImage();
-        updateDisplay();
-      } catch (IllegalStateException e) {
-        view.displayError(e.getMessage());
-      }
-
+      display(model.enqueue(model::redoImage, new TaskMonitor()), null, () -> { });
     }
 
     /**
@@ -360,182 +333,284 @@ class ControllerButtons {
      */
     @Override
     public void deleteAll() {
-      model.deleteAll();
-      view.clearImage();
-      view.setAllInvisible();
+      enqueue(model::deleteAll, () -> {
+        view.clearImage();
+        view.setAllInvisible();
+      });
     }
 
     /**
-     * Updates the view to display the most recent image. If there is no image to display,
-     * an error pops up.
+     * Submits a transformation to the model, cancelling the one submitted just before it if
+     * that is of the same kind and still running, and displays its progress until it finishes.
+     *
+     * @param kind           What kind of transformation it is.
+     * @param operation      The operation, which calls methods of the model.
+     * @param afterwards     What to do on the event dispatch thread once the operation has
+     *                       finished and its image is displayed.
      */
-    private void updateDisplay() {
-      BufferedImage bufferedImage = model.convertImage();
-      view.loadImage(bufferedImage);
+    private void submit(String kind, Runnable operation, Runnable afterwards) {
+      TaskMonitor monitor = new TaskMonitor();
+      display(model.submit(kind, operation, monitor), monitor, afterwards);
     }
 
     /**
-     * This method gets the user-typed commands from the GUI batch script
-     * text box, and processes the commands. If the user types an incorrect command,
-     * an error pops up.
+     * Submits an operation to the model, to run after every operation before it, and
+     * displays its progress until it finishes.
      *
-     * @throws IllegalArgumentException if the script command is not valid.
+     * @param operation      The operation, which calls methods of the model.
+     * @param afterwards     What to do on the event dispatch thread once the operation has
+     *                       finished and its image is displayed.
      */
-    public void executeScript() throws IllegalArgumentException {
-      String batchScript = view.getBatchScript();
-      Scanner scan = new Scanner(batchScript);
-
-      try {
-        while (scan.hasNext()) {
-          String token = scan.next().toLowerCase();
-
-          switch (token) {
-            case "open":
-              String filename = scan.next();
-              model.load(filename);
-              break;
+    private void enqueue(Runnable operation, Runnable afterwards) {
+      TaskMonitor monitor = new TaskMonitor();
+      display(model.enqueue(operation, monitor), monitor, afterwards);
+    }
 
-            case "save":
-              String writeName = scan.next();
-              model.save(writeName);
-              break;
+    /**
+     * Waits for a submitted operation without blocking, and then, on the event dispatch
+     * thread, displays the image it leaves, if it changed the image, and does what comes
+     * afterwards. If the operation fails, its error pops up instead. If it is cancelled,
+     * nothing happens. While it runs, its progress is displayed if it has a monitor.
+     *
+     * @param future         The future of the operation's image, or of null if the image did
+     *                       not change.
+     * @param monitor        The monitor of the operation, or null not to display progress.
+     * @param afterwards     What to do once the image is displayed.
+     */
+    private void display(CompletableFuture<BufferedImage> future, TaskMonitor monitor,
+                         Runnable afterwards) {
+      Timer timer = monitor == null ? null
+              : new Timer(PROGRESS_DELAY, e -> view.displayProgress(monitor.getProgress()));
+      if (timer != null) {
+        timer.start();
+      }
+      future.whenComplete((image, error) -> SwingUtilities.invokeLater(() -> {
+        if (timer != null) {
+          timer.stop();
+          view.displayProgress(-1);
+        }
+        if (error == null) {
+          if (image != null) {
+            view.loadImage(image);
+          }
+          afterwards.run();
+        } else if (!(error instanceof CancellationException)) {
+          view.displayError(error.getMessage());
+        }
+      }));
+    }
 
-            case "greyscale":
-              model.greyScale();
-              break;
+    /**
+     * This method gets the user-typed commands from the GUI batch script
+     * text box, and submits them to be processed after any operation still running. Once they
+     * are processed, the resulting image is displayed and the text box is emptied. If the user
+     * types an incorrect command, an error pops up.
+     */
+    public void executeScript() {
+      String batchScript = view.getBatchScript();
+      display(model.enqueue(() -> runScript(batchScript), new TaskMonitor()), null,
+              view::clearScriptTextBox);
+    }
 
-            case "sepia":
-              model.sepia();
-              break;
+    /**
+     * Processes the commands of a batch script, on the model's worker thread.
+     *
+     * @param batchScript the commands to be processed.
+     * @throws IllegalArgumentException if the script command is not valid.
+     */
+    private void runScript(String batchScript) throws IllegalArgumentException {
+      Scanner scan = new Scanner(batchScript);
 
-            case "blur":
-              model.sepia();
-              break;
+      while (scan.hasNext()) {
+        String token = scan.next().toLowerCase();
 
-            case "dither":
-              model.dither();
-              break;
+        switch (token) {
+          case "open":
+            String filename = scan.next();
+            model.load(filename);
+            break;
 
-            case "mosaic":
-              try {
-                String next = scan.next();
+          case "save":
+            String writeName = scan.next();
+            model.save(writeName);
+            break;
 
-                int seed = Integer.parseInt(next);
-                model.mosaic(seed);
+          case "greyscale":
+            model.greyScale();
+            break;
 
-              } catch (NumberFormatException e) {
-                throw new IllegalStateException("Mosaic needs a seed number");
-              }
-              break;
+          case "sepia":
+            model.sepia();
+            break;
 
-            case "sharpen":
-              model.sharpen();
-              break;
+          case "blur":
+            model.blur();
+            break;
 
+          case "dither":
+            model.dither();
+            break;
 
-            case "generategreece":
-              try {
-                String next = scan.next();
+          case "ordereddither":
+            try {
+              String next = scan.next();
 
-                int height = Integer.parseInt(next);
-                model.generateGreece(height);
+              int size = Integer.parseInt(next);
+              model.orderedDither(size);
 
-              } catch (NumberFormatException e) {
-                throw new IllegalArgumentException("Height must be a positive integer");
-              }
-              break;
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Ordered dither needs a matrix size");
+            }
+            break;
 
-            case "generatefrance":
-              try {
-                String next = scan.next();
+          case "bluenoisedither":
+            model.blueNoiseDither();
+            break;
 
-                int height = Integer.parseInt(next);
-                model.generateFrance(height);
+          case "quantize":
+            try {
+              String next = scan.next();
 
-              } catch (NumberFormatException e) {
-                throw new IllegalArgumentException("Height must be a positive integer");
-              }
-              break;
+              int colors = Integer.parseInt(next);
+              model.quantize(colors);
 
-            case "generateswiss":
-              try {
-                String next = scan.next();
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Quantize needs a number of colors");
+            }
+            break;
 
-                int height = Integer.parseInt(next);
-                model.generateSwiss(height);
+          case "mosaic":
+            try {
+              String next = scan.next();
 
-              } catch (NumberFormatException e) {
-                throw new IllegalArgumentException("Height must be a positive integer");
+              int seed = Integer.parseInt(next);
+              if (scan.hasNextLong()) {
+                model.mosaic(seed, scan.nextLong());
+              } else {
+                model.mosaic(seed);
               }
-              break;
-
-            case "generateverticalrainbow":
-              try {
-                String next = scan.next();
-                String secondNext = scan.next();
 
-                int width = Integer.parseInt(next);
-                int height = Integer.parseInt(secondNext);
-                model.generateVerticalRainbow(width, height);
+            } catch (NumberFormatException e) {
+              throw new IllegalStateException("Mosaic needs a seed number");
+            }
+            break;
 
-              } catch (NumberFormatException e) {
-                throw new IllegalArgumentException("Height must be a positive integer");
-              }
-              break;
+          case "sharpen":
+            model.sharpen();
+            break;
 
-            case "generatehorizontalrainbow":
-              try {
-                String next = scan.next();
-                String secondNext = scan.next();
 
-                int width = Integer.parseInt(next);
-                int height = Integer.parseInt(secondNext);
-                model.generateHorizontalRainbow(width, height);
+          case "parallel":
+            try {
+              String next = scan.next();
 
-              } catch (NumberFormatException e) {
-                throw new IllegalArgumentException("Height must be a positive integer");
-              }
-              break;
+              int threads = Integer.parseInt(next);
+              model.setParallelism(threads);
 
-            case "generatecheckerboard":
-              try {
-                String next = scan.next();
-                String secondNext = scan.next();
-                String thirdNext = scan.next();
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Number of threads must be a positive integer");
+            }
+            break;
 
-                int width = Integer.parseInt(next);
-                int height = Integer.parseInt(secondNext);
-                int squareSize = Integer.parseInt(thirdNext);
-                model.generateCheckerBoard(width, height, squareSize);
+          case "history":
+            try {
+              String next = scan.next();
 
-              } catch (NumberFormatException e) {
-                throw new IllegalArgumentException("Height must be a positive integer");
+              long megabytes = Long.parseLong(next);
+              if (megabytes < 0 || megabytes > Long.MAX_VALUE >> 20) {
+                throw new NumberFormatException();
               }
-              break;
-
-            default:
-              throw new IllegalArgumentException("Script command not recognized, check for typos");
-          }
+              model.setHistoryBudget(megabytes << 20);
+
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("History budget must be a number of megabytes");
+            }
+            break;
+
+          case "generategreece":
+            try {
+              String next = scan.next();
+
+              int height = Integer.parseInt(next);
+              model.generateGreece(height);
+
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Height must be a positive integer");
+            }
+            break;
+
+          case "generatefrance":
+            try {
+              String next = scan.next();
+
+              int height = Integer.parseInt(next);
+              model.generateFrance(height);
+
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Height must be a positive integer");
+            }
+            break;
+
+          case "generateswiss":
+            try {
+              String next = scan.next();
+
+              int height = Integer.parseInt(next);
+              model.generateSwiss(height);
+
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Height must be a positive integer");
+            }
+            break;
+
+          case "generateverticalrainbow":
+            try {
+              String next = scan.next();
+              String secondNext = scan.next();
+
+              int width = Integer.parseInt(next);
+              int height = Integer.parseInt(secondNext);
+              model.generateVerticalRainbow(width, height);
+
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Height must be a positive integer");
+            }
+            break;
+
+          case "generatehorizontalrainbow":
+            try {
+              String next = scan.next();
+              String secondNext = scan.next();
+
+              int width = Integer.parseInt(next);
+              int height = Integer.parseInt(secondNext);
+              model.generateHorizontalRainbow(width, height);
+
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Height must be a positive integer");
+            }
+            break;
+
+          case "generatecheckerboard":
+            try {
+              String next = scan.next();
+              String secondNext = scan.next();
+              String thirdNext = scan.next();
+
+              int width = Integer.parseInt(next);
+              int height = Integer.parseInt(secondNext);
+              int squareSize = Integer.parseInt(thirdNext);
+              model.generateCheckerBoard(width, height, squareSize);
+
+            } catch (NumberFormatException e) {
+              throw new IllegalArgumentException("Height must be a positive integer");
+            }
+            break;
+
+          default:
+            throw new IllegalArgumentException("Script command not recognized, check for typos");
         }
-
-        updateDisplay();
-        view.clearScriptTextBox();
-      }
-      catch (IllegalArgumentException e) {
-        view.displayError(e.getMessage());
       }
-      catch (IllegalStateException a) {
-        view.displayError(a.getMessage());
-      }
-
-
-
     }
-
-
   }
 }
-
-
-
-
@@ -25,7 +25,9 @@ class ControllerScript {
   }
 
   /**
-   * This method analyzes and performs the commands in a script.
+   * This method analyzes and performs the commands in a script. Consecutive color
+   * transformations in the script are fused into a single pass over the image. Fusion is
+   * turned off again even if a command fails, so later operations are not left queued.
    */
   void run() {
 
@@ -36,9 +38,14 @@ class ControllerScript {
       throw new IllegalArgumentException("file not found");
     }
 
-    while (scan.hasNext()) {
-      String token = scan.next().toLowerCase();
-      processToken(token);
+    model.setFusion(true);
+    try {
+      while (scan.hasNext()) {
+        String token = scan.next().toLowerCase();
+        processToken(token);
+      }
+    } finally {
+      model.setFusion(false);
     }
   }
 
@@ -71,19 +78,51 @@ class ControllerScript {
         break;
 
       case "blur":
-        model.sepia();
+        model.blur();
         break;
 
       case "dither":
         model.dither();
         break;
 
+      case "ordereddither":
+        try {
+          String next = scan.next();
+
+          int size = Integer.parseInt(next);
+          model.orderedDither(size);
+
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Ordered dither needs a matrix size");
+        }
+        break;
+
+      case "bluenoisedither":
+        model.blueNoiseDither();
+        break;
+
+      case "quantize":
+        try {
+          String next = scan.next();
+
+          int colors = Integer.parseInt(next);
+          model.quantize(colors);
+
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Quantize needs a number of colors");
+        }
+        break;
+
       case "mosaic":
         try {
           String next = scan.next();
 
           int seed = Integer.parseInt(next);
-          model.mosaic(seed);
+          if (scan.hasNextLong()) {
+            model.mosaic(seed, scan.nextLong());
+          } else {
+            model.mosaic(seed);
+          }
 
         } catch (NumberFormatException e) {
           throw new IllegalStateException("Mosaic needs a seed number");
@@ -94,6 +133,33 @@ class ControllerScript {
         model.sharpen();
         break;
 
+      case "parallel":
+        try {
+          String next = scan.next();
+
+          int threads = Integer.parseInt(next);
+          model.setParallelism(threads);
+
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Number of threads must be a positive integer");
+        }
+        break;
+
+      case "history":
+        try {
+          String next = scan.next();
+
+          long megabytes = Long.parseLong(next);
+          if (megabytes < 0 || megabytes > Long.MAX_VALUE >> 20) {
+            throw new NumberFormatException();
+          }
+          model.setHistoryBudget(megabytes << 20);
+
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("History budget must be a number of megabytes");
+        }
+        break;
+
       case "generategreece":
         try {
           String next = scan.next();
@@ -0,0 +1,745 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import image.Image;
+import image.ImageMapped;
+import image.ImagePacked;
+import transformations.ResultCache;
+import transformations.RowExecutor;
+import transformations.Transformation;
+
+/**
+ * History holds the images a model has produced, as a stack of images that can be undone and a
+ * stack of images that can be redone, within a budget of memory.
+ *
+ * <p>The most recent few images on each stack are always kept whole, so undoing and redoing
+ * them is instant. Once the history grows past its budget, older images are compressed, oldest
+ * first. Images are compressed in groups of the same size: the first image of a group, the
+ * keyframe, is compressed on its own, and the rest are compressed as the difference from it,
+ * which is mostly zeros when an operation only changes part of an image. An image is only
+ * stored as a difference if that is smaller than storing it as a keyframe. Images that are
+ * already compact, such as run-length encoded ones, are kept as they are. A compressed image
+ * is expanded again when it is undone or redone to.
+ *
+ * <p>If the history is still over budget, older images are spilled to a scratch file, as three
+ * bytes per pixel, and replaced by an ImageMapped that reads them back from the file only when
+ * they are undone to. This keeps the heap the history uses flat however long a session runs.
+ * The scratch file is created when it is first needed, and deleted when the history is cleared
+ * or the program exits. Only if the file cannot be written are the images furthest from the
+ * most recent one dropped, so that they can no longer be undone or redone to. The room a
+ * dropped image took up in the file is reused by later spills, and the file shrinks when the
+ * room at its end is freed. Spilling is tried again once room is freed, or the history is
+ * cleared.
+ *
+ * <p>An image produced by applying a transformation to the image below it is also recorded as
+ * that transformation, a recipe, if the transformation gives the same result every time, which
+ * ResultCache.isCacheable tells. Outside the top few images only the recipe is kept, and the
+ * image is recomputed by replaying the recipes from the nearest image that is still held, when
+ * it is undone or redone to. Every so many steps an image is kept as a keyframe, so a replay
+ * never runs more than that many transformations. The number of steps between keyframes is
+ * tuned from how long transformations take per pixel, so that replaying up to the next
+ * keyframe takes about REPLAY_TARGET_NANOS. The result of any other transformation is kept as
+ * an image, like a loaded one.
+ */
+class History {
+
+  /**
+   * The number of images at the top of each stack that are always kept whole.
+   */
+  static final int HOT_ENTRIES = 4;
+
+  /**
+   * The largest number of images compressed against the same keyframe.
+   */
+  static final int GROUP_SIZE = 8;
+
+  /**
+   * The time replaying recipes up to an image should take, in nanoseconds.
+   */
+  static final long REPLAY_TARGET_NANOS = 200_000_000L;
+
+  /**
+   * The largest number of recipes between keyframes.
+   */
+  static final int MAX_KEYFRAME_INTERVAL = 32;
+
+  private long budget;
+  private long size;
+  private List<Entry> undo;
+  private List<Entry> redo;
+  private Group group;
+  private FileChannel spill;
+  private long spillEnd;
+  private TreeMap<Long, Long> spillFree;
+  private boolean spillFailed;
+  private RowExecutor executor;
+  private double nanosPerPixel;
+
+  /**
+   * Constructs an empty history with the given budget.
+   *
+   * @param budget                       The memory the history may use, in bytes.
+   * @throws IllegalArgumentException    if the budget is negative.
+   */
+  History(long budget) throws IllegalArgumentException {
+    setBudget(budget);
+    undo = new ArrayList<>();
+    redo = new ArrayList<>();
+    spillFree = new TreeMap<>();
+    executor = RowExecutor.SEQUENTIAL;
+  }
+
+  /**
+   * Sets the memory the history may use, and compresses or drops older images to fit it.
+   *
+   * @param budget                       The memory the history may use, in bytes.
+   * @throws IllegalArgumentException    if the budget is negative.
+   */
+  void setBudget(long budget) throws IllegalArgumentException {
+    if (budget < 0) {
+      throw new IllegalArgumentException("History budget cannot be negative");
+    }
+    this.budget = budget;
+    if (undo != null) {
+      balance();
+    }
+  }
+
+  /**
+   * Sets the executor recipes are replayed with. Replays are not monitored, so this should not
+   * be an executor with a monitor.
+   *
+   * @param executor                     The executor that processes the rows of replayed
+   *                                     images.
+   */
+  void setExecutor(RowExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Adds an image to the top of the undo stack. The redo stack is left as it is.
+   *
+   * @param image                        The image to be added.
+   */
+  void push(Image image) {
+    add(new Entry(image));
+  }
+
+  /**
+   * Applies a transformation to the image at the top of the undo stack, and adds the result to
+   * the top of the undo stack, recorded as a recipe. The time the transformation takes is used
+   * to tune the number of steps between keyframes.
+   *
+   * @param transformation               The transformation to be applied.
+   * @param executor                     The executor that processes the rows of the image.
+   * @throws EmptyStackException         if there is no image to apply the transformation to.
+   */
+  void apply(Transformation transformation, RowExecutor executor) throws EmptyStackException {
+    Image original = peek();
+    long start = System.nanoTime();
+    Image result = transformation.apply(original, executor);
+    double sample = (double) (System.nanoTime() - start) / result.getWidth() / result.getHeight();
+    nanosPerPixel = nanosPerPixel == 0 ? sample : 0.75 * nanosPerPixel + 0.25 * sample;
+    record(transformation, result);
+  }
+
+  /**
+   * Adds the result of applying a transformation to the image at the top of the undo stack to
+   * the top of the undo stack, recorded as a recipe unless the transformation may give a
+   * different result when replayed. This is for a result that was not computed by apply, such
+   * as one found in a cache, so it does not tune the number of steps between keyframes.
+   *
+   * @param transformation               The transformation that was applied.
+   * @param result                       The result of applying it.
+   * @throws EmptyStackException         if there is no image the transformation was applied to.
+   */
+  void record(Transformation transformation, Image result) throws EmptyStackException {
+    if (undo.isEmpty()) {
+      throw new EmptyStackException();
+    }
+    Entry source = undo.get(undo.size() - 1);
+    Entry entry = new Entry(result);
+    long pixels = (long) result.getWidth() * result.getHeight();
+    long interval = Math.max(1, Math.min(MAX_KEYFRAME_INTERVAL,
+            (long) (REPLAY_TARGET_NANOS / (nanosPerPixel * pixels))));
+    if (ResultCache.isCacheable(transformation) && source.steps + 1 < interval) {
+      entry.recipe = transformation;
+      entry.source = source;
+      entry.steps = source.steps + 1;
+    }
+    add(entry);
+  }
+
+  /**
+   * Adds an entry to the top of the undo stack. The redo stack is left as it is.
+   *
+   * @param entry                        The entry to be added.
+   */
+  private void add(Entry entry) {
+    undo.add(entry);
+    size += entry.getByteSize();
+    balance();
+  }
+
+  /**
+   * Gets and returns the image at the top of the undo stack, expanding it if it is compressed,
+   * or replaying its recipe if only that is kept.
+   *
+   * @return                             The most recent image.
+   * @throws EmptyStackException         if there are no images.
+   */
+  Image peek() throws EmptyStackException {
+    if (undo.isEmpty()) {
+      throw new EmptyStackException();
+    }
+    Entry entry = undo.get(undo.size() - 1);
+    if (entry.image == null) {
+      entry.image = materialize(entry);
+      size += entry.image.getByteSize();
+      balance();
+    }
+    return entry.image;
+  }
+
+  /**
+   * Moves the image at the top of the undo stack to the top of the redo stack.
+   *
+   * @throws EmptyStackException         if there are no images to undo.
+   */
+  void undo() throws EmptyStackException {
+    if (undo.isEmpty()) {
+      throw new EmptyStackException();
+    }
+    redo.add(undo.remove(undo.size() - 1));
+    balance();
+  }
+
+  /**
+   * Moves the image at the top of the redo stack back to the top of the undo stack.
+   *
+   * @throws EmptyStackException         if there are no images to redo.
+   */
+  void redo() throws EmptyStackException {
+    if (redo.isEmpty()) {
+      throw new EmptyStackException();
+    }
+    undo.add(redo.remove(redo.size() - 1));
+    balance();
+  }
+
+  /**
+   * Gets and returns the number of images on the undo stack, including the most recent one.
+   *
+   * @return                             The number of images that can be undone to.
+   */
+  int getUndoCount() {
+    return undo.size();
+  }
+
+  /**
+   * Gets and returns the number of images on the redo stack.
+   *
+   * @return                             The number of images that can be redone to.
+   */
+  int getRedoCount() {
+    return redo.size();
+  }
+
+  /**
+   * Gets and returns the memory the history uses, in bytes.
+   *
+   * @return                             The size of the history.
+   */
+  long getByteSize() {
+    return size;
+  }
+
+  /**
+   * Removes every image from both stacks, deletes the scratch file, and tries spilling again if
+   * it had failed.
+   */
+  void clear() {
+    undo.clear();
+    redo.clear();
+    group = null;
+    size = 0;
+    spillFree.clear();
+    spillFailed = false;
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException e) {
+        // The file is deleted when the program exits regardless.
+      }
+      spill = null;
+      spillEnd = 0;
+    }
+  }
+
+  /**
+   * Brings the history within its budget. Images below the top of each stack that can be
+   * replayed from a recipe are not kept at all. The rest are compressed first, oldest first,
+   * then spilled to the scratch file, and if that is not possible the images furthest from the
+   * most recent one are dropped, from the bottom of whichever stack is deeper.
+   */
+  private void balance() {
+    forget(undo);
+    forget(redo);
+    compress(undo);
+    compress(redo);
+    spill(undo);
+    spill(redo);
+    while (size > budget && spillFailed) {
+      boolean undoCanDrop = undo.size() > HOT_ENTRIES;
+      boolean redoCanDrop = redo.size() > HOT_ENTRIES;
+      if (undoCanDrop && (!redoCanDrop || undo.size() > redo.size())) {
+        drop(undo);
+      } else if (redoCanDrop) {
+        drop(redo);
+      } else {
+        break;
+      }
+      compress(undo);
+      compress(redo);
+    }
+  }
+
+  /**
+   * Drops the image at the bottom of a stack. Any image recorded as a recipe applied to it is
+   * replayed first and kept whole instead, so that nothing refers to the dropped image any more
+   * and its memory, which is no longer counted, can be reclaimed.
+   *
+   * @param stack                        The stack whose bottom image is dropped.
+   */
+  private void drop(List<Entry> stack) {
+    Entry dropped = stack.get(0);
+    for (List<Entry> other : Arrays.asList(undo, redo)) {
+      for (Entry entry : other) {
+        if (entry.source == dropped) {
+          if (entry.image == null) {
+            entry.image = materialize(entry);
+            size += entry.image.getByteSize();
+          }
+          entry.recipe = null;
+          entry.source = null;
+          entry.steps = 0;
+        }
+      }
+    }
+    stack.remove(0);
+    remove(dropped);
+    release(dropped);
+  }
+
+  /**
+   * Drops the images of a stack below its top few that are recorded as recipes, keeping only
+   * the recipes.
+   *
+   * @param stack                        The stack whose images are dropped.
+   */
+  private void forget(List<Entry> stack) {
+    for (int i = 0; i < stack.size() - HOT_ENTRIES; i++) {
+      Entry entry = stack.get(i);
+      if (entry.recipe != null && entry.image != null) {
+        size -= entry.image.getByteSize();
+        entry.image = null;
+      }
+    }
+  }
+
+  /**
+   * Compresses the images of a stack below its top few, oldest first, until the history is
+   * within its budget.
+   *
+   * @param stack                        The stack whose images are compressed.
+   */
+  private void compress(List<Entry> stack) {
+    for (int i = 0; i < stack.size() - HOT_ENTRIES && size > budget; i++) {
+      Entry entry = stack.get(i);
+      if (entry.image == null || entry.isCompact()) {
+        continue;
+      }
+      size -= entry.getByteSize();
+      if (entry.group == null) {
+        encode(entry);
+      }
+      entry.image = null;
+      size += entry.getByteSize();
+    }
+  }
+
+  /**
+   * Spills the images of a stack below its top few to the scratch file, oldest first, until the
+   * history is within its budget. Compressed images are expanded to be spilled. If the file
+   * cannot be written, nothing more is spilled.
+   *
+   * @param stack                        The stack whose images are spilled.
+   */
+  private void spill(List<Entry> stack) {
+    for (int i = 0; i < stack.size() - HOT_ENTRIES && size > budget && !spillFailed; i++) {
+      Entry entry = stack.get(i);
+      if (entry.recipe != null || entry.image != null && entry.isCompact()) {
+        continue;
+      }
+      try {
+        if (spill == null) {
+          spill = FileChannel.open(Files.createTempFile("history", ".rgb"),
+                  StandardOpenOption.READ, StandardOpenOption.WRITE,
+                  StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        long length = ImageMapped.getFileSize(entry.width, entry.height);
+        long position = allocate(length);
+        Image spilled;
+        try {
+          spilled = ImageMapped.write(materialize(entry), spill, position);
+        } catch (IOException e) {
+          free(position, length);
+          throw e;
+        }
+        remove(entry);
+        entry.image = spilled;
+        entry.spillPosition = position;
+        entry.group = null;
+        entry.delta = null;
+        size += entry.getByteSize();
+      } catch (IOException e) {
+        spillFailed = true;
+      }
+    }
+  }
+
+  /**
+   * Finds room in the scratch file for a spilled image, in the first freed region it fits in,
+   * or else at the end of the file.
+   *
+   * @param length                       The size of the image in the file, in bytes.
+   * @return                             The position in the file to write the image at.
+   */
+  private long allocate(long length) {
+    for (Map.Entry<Long, Long> region : spillFree.entrySet()) {
+      long position = region.getKey();
+      long free = region.getValue();
+      if (free >= length) {
+        spillFree.remove(position);
+        if (free > length) {
+          spillFree.put(position + length, free - length);
+        }
+        return position;
+      }
+    }
+    long position = spillEnd;
+    spillEnd += length;
+    return position;
+  }
+
+  /**
+   * Frees the region of the scratch file a dropped entry was spilled to, if it was spilled, so
+   * that it can be reused. Since there is room in the file again, spilling is tried again even
+   * if it had failed.
+   *
+   * @param entry                        The dropped entry.
+   */
+  private void release(Entry entry) {
+    if (entry.spillPosition >= 0) {
+      free(entry.spillPosition, ImageMapped.getFileSize(entry.width, entry.height));
+      entry.spillPosition = -1;
+      spillFailed = false;
+    }
+  }
+
+  /**
+   * Frees a region of the scratch file, merging it with the free regions next to it. If it
+   * ends up at the end of the file, the file is truncated to give the space back instead.
+   *
+   * @param position                     The position of the region.
+   * @param length                       The size of the region, in bytes.
+   */
+  private void free(long position, long length) {
+    Map.Entry<Long, Long> before = spillFree.floorEntry(position);
+    if (before != null && before.getKey() + before.getValue() == position) {
+      spillFree.remove(before.getKey());
+      position = before.getKey();
+      length += before.getValue();
+    }
+    Long after = spillFree.get(position + length);
+    if (after != null) {
+      spillFree.remove(position + length);
+      length += after;
+    }
+    if (position + length < spillEnd) {
+      spillFree.put(position, length);
+      return;
+    }
+    spillEnd = position;
+    try {
+      spill.truncate(spillEnd);
+    } catch (IOException e) {
+      // The space is still reused, once the end of the file is written again.
+    }
+  }
+
+  /**
+   * Compresses an image as a difference from the keyframe of the current group, or as the
+   * keyframe of a new group if it does not fit the current group or the difference would not
+   * be smaller.
+   *
+   * @param entry                        The entry whose image is compressed.
+   */
+  private void encode(Entry entry) {
+    if (group != null && group.width == entry.width && group.height == entry.height
+            && group.count < GROUP_SIZE) {
+      byte[] delta = compress(entry.image, group.key);
+      if (delta.length < group.key.length) {
+        join(entry, group);
+        entry.delta = delta;
+        return;
+      }
+    }
+    group = new Group(entry.width, entry.height, compress(entry.image, null));
+    join(entry, group);
+  }
+
+  /**
+   * Adds an entry to a group, counting the group's keyframe against the budget if this is its
+   * first entry.
+   *
+   * @param entry                        The entry.
+   * @param group                        The group it is compressed against.
+   */
+  private void join(Entry entry, Group group) {
+    entry.group = group;
+    group.count++;
+    if (group.members++ == 0) {
+      size += group.key.length;
+    }
+  }
+
+  /**
+   * Stops counting an entry against the budget, and its group's keyframe if no other entry
+   * still needs it, in which case no new entries are compressed against it either. This is
+   * done when the entry is dropped, or spilled to the scratch file.
+   *
+   * @param entry                        The entry to be dropped or spilled.
+   */
+  private void remove(Entry entry) {
+    size -= entry.getByteSize();
+    if (entry.group != null && --entry.group.members == 0) {
+      size -= entry.group.key.length;
+      if (entry.group == group) {
+        group = null;
+      }
+    }
+  }
+
+  /**
+   * Compresses an image row by row, as three bytes per pixel, either on its own or as the
+   * exclusive or of each pixel with the matching pixel of a keyframe.
+   *
+   * @param image                        The image to be compressed.
+   * @param key                          The compressed keyframe, or null to compress the
+   *                                     image on its own.
+   * @return                             The compressed image.
+   */
+  private static byte[] compress(Image image, byte[] key) {
+    int width = image.getWidth();
+    int[] row = new int[width];
+    int[] keyRow = new int[width];
+    byte[] bytes = new byte[3 * width];
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+         DataInputStream in = key == null ? null : open(key)) {
+      for (int i = 0; i < image.getHeight(); i++) {
+        image.getRow(i, row, 0);
+        if (in != null) {
+          readRow(in, bytes, keyRow);
+          for (int j = 0; j < width; j++) {
+            row[j] ^= keyRow[j];
+          }
+        }
+        writeRow(out, bytes, row);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Image could not be compressed");
+    } finally {
+      deflater.end();
+    }
+    return compressed.toByteArray();
+  }
+
+  /**
+   * Gets and returns the image of an entry, expanding it if it is compressed, or replaying its
+   * recipe on the image of its source if only the recipe is kept. The image is not kept.
+   *
+   * @param entry                        The entry.
+   * @return                             The image of the entry.
+   */
+  private Image materialize(Entry entry) {
+    if (entry.image != null) {
+      return entry.image;
+    } else if (entry.group != null) {
+      return decode(entry);
+    }
+    return entry.recipe.apply(materialize(entry.source), executor);
+  }
+
+  /**
+   * Expands a compressed entry back into a whole image.
+   *
+   * @param entry                        The compressed entry.
+   * @return                             The expanded image.
+   */
+  private static Image decode(Entry entry) {
+    int width = entry.width;
+    int[] pixels = new int[width * entry.height];
+    int[] row = new int[width];
+    byte[] bytes = new byte[3 * width];
+    try (DataInputStream key = open(entry.group.key);
+         DataInputStream delta = entry.delta == null ? null : open(entry.delta)) {
+      for (int i = 0; i < entry.height; i++) {
+        readRow(key, bytes, row);
+        System.arraycopy(row, 0, pixels, i * width, width);
+        if (delta != null) {
+          readRow(delta, bytes, row);
+          for (int j = 0; j < width; j++) {
+            pixels[i * width + j] ^= row[j];
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Image could not be expanded");
+    }
+    return new ImagePacked(width, entry.height, pixels);
+  }
+
+  /**
+   * Opens a stream that expands compressed bytes.
+   *
+   * @param compressed                   The compressed bytes.
+   * @return                             The stream of expanded bytes.
+   */
+  private static DataInputStream open(byte[] compressed) {
+    return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+  }
+
+  /**
+   * Writes a row of packed pixels as three bytes per pixel.
+   *
+   * @param out                          The stream the row is written to.
+   * @param bytes                        A buffer of three bytes per pixel.
+   * @param row                          The row of packed pixels.
+   * @throws IOException                 if the row cannot be written.
+   */
+  private static void writeRow(OutputStream out, byte[] bytes, int[] row) throws IOException {
+    for (int j = 0; j < row.length; j++) {
+      bytes[3 * j] = (byte) (row[j] >> 16);
+      bytes[3 * j + 1] = (byte) (row[j] >> 8);
+      bytes[3 * j + 2] = (byte) row[j];
+    }
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a row of packed pixels written by writeRow.
+   *
+   * @param in                           The stream the row is read from.
+   * @param bytes                        A buffer of three bytes per pixel.
+   * @param row                          The array the row of packed pixels is read into.
+   * @throws IOException                 if the row cannot be read.
+   */
+  private static void readRow(DataInputStream in, byte[] bytes, int[] row) throws IOException {
+    in.readFully(bytes);
+    for (int j = 0; j < row.length; j++) {
+      row[j] = (bytes[3 * j] & 0xFF) << 16 | (bytes[3 * j + 1] & 0xFF) << 8
+              | bytes[3 * j + 2] & 0xFF;
+    }
+  }
+
+  /**
+   * An image in the history, held whole, compressed, spilled, or as a recipe and the entry it
+   * is applied to. A compressed or replayed image is also held whole while it is near the top of
+   * a stack.
+   */
+  private static class Entry {
+
+    private final int width;
+    private final int height;
+    private Image image;
+    private Group group;
+    private byte[] delta;
+    private Transformation recipe;
+    private Entry source;
+    private int steps;
+    private long spillPosition = -1;
+
+    /**
+     * Constructs an entry holding a whole image.
+     *
+     * @param image                      The image.
+     */
+    private Entry(Image image) {
+      this.width = image.getWidth();
+      this.height = image.getHeight();
+      this.image = image;
+    }
+
+    /**
+     * Determines if the image takes up less memory than its pixels would packed, in which case
+     * it is not worth compressing.
+     *
+     * @return                           True if the image is compact, false otherwise.
+     */
+    private boolean isCompact() {
+      return image.getByteSize() < 4L * width * height;
+    }
+
+    /**
+     * Gets and returns the memory the entry uses on its own, not counting its group's keyframe.
+     *
+     * @return                           The size of the entry, in bytes.
+     */
+    private long getByteSize() {
+      return (image == null ? 0 : image.getByteSize()) + (delta == null ? 0 : delta.length);
+    }
+  }
+
+  /**
+   * A keyframe, and the count of entries compressed against it.
+   */
+  private static class Group {
+
+    private final int width;
+    private final int height;
+    private final byte[] key;
+    private int count;
+    private int members;
+
+    /**
+     * Constructs a group with no entries.
+     *
+     * @param width                      The width of the group's images.
+     * @param height                     The height of the group's images.
+     * @param key                        The compressed keyframe.
+     */
+    private Group(int width, int height, byte[] key) {
+      this.width = width;
+      this.height = height;
+      this.key = key;
+    }
+  }
+}
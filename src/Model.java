@@ -1,48 +1,333 @@
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.EmptyStackException;
-import java.util.Stack;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import generator.CheckerboardGenerator;
 import generator.FranceGenerator;
+import generator.GeneratorCache;
 import generator.GreeceGenerator;
 import generator.RainbowGenerator;
 import generator.SwissGenerator;
 import image.Image;
-import image.ImageRGB;
+import image.ImagePacked;
+import image.ImageRLE;
+import image.ImageUtil;
+import transformations.AbstractColorTransformation;
+import transformations.BlueNoiseDither;
 import transformations.Blur;
 import transformations.Dither;
+import transformations.FusedColorTransformation;
 import transformations.Greyscale;
 import transformations.Mosaic;
+import transformations.OrderedDither;
+import transformations.Quantize;
+import transformations.ResultCache;
+import transformations.RowExecutor;
 import transformations.Sepia;
 import transformations.Sharpen;
+import transformations.TaskMonitor;
+import transformations.Transformation;
 
 
 /**
  * Model holds a single image to perform operations upon, which it replaces after using each filter,
  * generator or transformation. Every operation in the model is performed by first instantiating an
  * object of the relevant class, and then delegating the work to that object.
+ *
+ * <p>Operations can also be submitted to run on the model's own worker thread, which returns a
+ * future of the resulting image, so that a GUI is not frozen while they run. Submitted
+ * operations run one at a time, in order, and report their progress to a TaskMonitor, which
+ * can cancel them part way through a transformation. The model should then only be used
+ * through submitted operations.
  */
 class Model {
-  private Stack<Image> undoStack;
-  private Stack<Image> redoStack;
 
   /**
-   * Constructs a model object, and instantiates the undoStack and redoStack instance
-   * variables.
+   * The smallest average number of pixels per run for a loaded image to be kept run-length
+   * encoded, rather than as packed pixels.
+   */
+  private static final int RLE_PIXELS_PER_RUN = 16;
+
+  /**
+   * The share of the largest heap the history of images may use by default.
+   */
+  private static final int HISTORY_HEAP_FRACTION = 4;
+
+  /**
+   * The share of the largest heap the cache of transformation results may use.
+   */
+  private static final int RESULT_CACHE_HEAP_FRACTION = 8;
+
+  private History history;
+  private ResultCache results;
+  private RowExecutor executor;
+  private boolean fuseColorTransformations;
+  private List<AbstractColorTransformation> pendingColorTransformations;
+  private ExecutorService worker;
+  private TaskMonitor latest;
+  private Object latestKind;
+  private TaskMonitor running;
+
+  /**
+   * Constructs a model object, and instantiates the history of images, which may use a quarter
+   * of the heap until a budget is set, and the cache of transformation results, which may use
+   * an eighth of it. Transformations run sequentially until a parallelism is set.
    */
   Model() {
-    undoStack = new Stack<>();
-    redoStack = new Stack<>();
+    history = new History(Runtime.getRuntime().maxMemory() / HISTORY_HEAP_FRACTION);
+    results = new ResultCache(Runtime.getRuntime().maxMemory() / RESULT_CACHE_HEAP_FRACTION);
+    executor = RowExecutor.SEQUENTIAL;
+    pendingColorTransformations = new ArrayList<>();
+  }
+
+  /**
+   * Sets whether consecutive color transformations are fused. While fusion is on, greyscale and
+   * sepia are queued instead of applied, and a run of them is applied as a single pass the next
+   * time the image is needed. The result is identical, but the whole run becomes a single
+   * operation to undo. Turning fusion off applies anything still queued, and fusion is set
+   * even if that fails.
+   *
+   * @param fuse                         True to fuse color transformations, false otherwise.
+   */
+  void setFusion(boolean fuse) {
+    try {
+      flushColorTransformations();
+    } finally {
+      fuseColorTransformations = fuse;
+    }
+  }
+
+  /**
+   * Applies a transformation to the most recent image, and stores the result in the history.
+   * Any queued color transformations are applied first.
+   *
+   * @param transformation               The transformation to be applied.
+   * @throws IllegalStateException       if there is no image to apply the transformation to.
+   */
+  private void applyTransformation(Transformation transformation) throws IllegalStateException {
+    flushColorTransformations();
+    try {
+      applyCached(transformation);
+    } catch (EmptyStackException e) {
+      throw new IllegalStateException("There is no image to apply a filter to");
+    }
+  }
+
+  /**
+   * Applies a color transformation to the most recent image, or queues it to be fused with the
+   * ones around it if fusion is on.
+   *
+   * @param transformation               The color transformation to be applied.
+   * @throws IllegalStateException       if there is no image to apply the transformation to.
+   */
+  private void applyColorTransformation(AbstractColorTransformation transformation)
+          throws IllegalStateException {
+    if (!fuseColorTransformations) {
+      applyTransformation(transformation);
+    } else if (history.getUndoCount() == 0) {
+      throw new IllegalStateException("There is no image to apply a filter to");
+    } else {
+      pendingColorTransformations.add(transformation);
+    }
+  }
+
+  /**
+   * Applies any queued color transformations to the most recent image as a single pass, and
+   * stores the result in the history. A single queued transformation is applied on its own.
+   * The queue is only emptied once the pass has finished, so a cancelled pass is tried again.
+   */
+  private void flushColorTransformations() {
+    if (pendingColorTransformations.isEmpty()) {
+      return;
+    }
+    Transformation transformation = pendingColorTransformations.size() == 1
+            ? pendingColorTransformations.get(0)
+            : new FusedColorTransformation(pendingColorTransformations, true);
+    applyCached(transformation);
+    pendingColorTransformations.clear();
+  }
+
+  /**
+   * Applies a transformation to the most recent image, and stores the result in the history,
+   * unless the same transformation has already been applied to an image with the same content,
+   * in which case the cached result is stored instead. Looking the result up hashes the image
+   * first, so a result that is not cached costs one extra read of the image.
+   *
+   * @param transformation               The transformation to be applied.
+   * @throws EmptyStackException         if there is no image to apply the transformation to.
+   */
+  private void applyCached(Transformation transformation) throws EmptyStackException {
+    Image original = history.peek();
+    Image cached = results.get(original, transformation, getExecutor());
+    if (cached != null) {
+      history.record(transformation, cached);
+    } else {
+      history.apply(transformation, getExecutor());
+      results.put(original, transformation, history.peek(), getExecutor());
+    }
+  }
+
+  /**
+   * Gets and returns the executor transformations run on, which reports to the monitor of the
+   * submitted operation that is running, if there is one.
+   *
+   * @return                             The executor.
+   */
+  private RowExecutor getExecutor() {
+    return running == null ? executor : executor.withMonitor(running);
+  }
+
+  /**
+   * Submits an operation to run on the model's worker thread, and cancels the operation
+   * submitted just before it if that is of the same kind and has not finished, so that only
+   * the latest of several quick requests for the same operation is carried out. An operation
+   * of another kind, or one with an operation queued after it, is never cancelled, since the
+   * ones after it work on its result. An operation cancelled part way through leaves the model
+   * as it was.
+   *
+   * @param kind                         What kind of operation it is, compared with equals.
+   * @param operation                    The operation, which calls methods of this model.
+   * @param monitor                      The monitor the operation reports its progress to, and
+   *                                     can be cancelled with.
+   * @return                             A future of the most recent image once the operation
+   *                                     has finished, or of null if the operation left the same
+   *                                     image or there is none. It is cancelled if the
+   *                                     operation is, and completes with the operation's
+   *                                     exception if it throws one.
+   */
+  synchronized CompletableFuture<BufferedImage> submit(Object kind, Runnable operation,
+                                                       TaskMonitor monitor) {
+    if (latest != null && kind.equals(latestKind)) {
+      latest.cancel();
+    }
+    CompletableFuture<BufferedImage> future = enqueue(operation, monitor);
+    latest = monitor;
+    latestKind = kind;
+    return future;
+  }
+
+  /**
+   * Submits an operation to run on the model's worker thread once every operation submitted
+   * before it has finished, without cancelling any of them. No operation submitted later
+   * cancels the ones before this one.
+   *
+   * @param operation                    The operation, which calls methods of this model.
+   * @param monitor                      The monitor the operation reports its progress to, and
+   *                                     can be cancelled with.
+   * @return                             A future of the most recent image once the operation
+   *                                     has finished, or of null if the operation left the same
+   *                                     image or there is none. It is cancelled if the
+   *                                     operation is, and completes with the operation's
+   *                                     exception if it throws one.
+   */
+  synchronized CompletableFuture<BufferedImage> enqueue(Runnable operation,
+                                                        TaskMonitor monitor) {
+    if (worker == null) {
+      worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Model worker");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    latest = null;
+    latestKind = null;
+    CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+    future.whenComplete((image, error) -> {
+      if (future.isCancelled()) {
+        monitor.cancel();
+      }
+    });
+    worker.execute(() -> {
+      try {
+        monitor.checkCancelled();
+        running = monitor;
+        Image before = peekImage();
+        operation.run();
+        flushColorTransformations();
+        Image after = peekImage();
+        future.complete(after == null || after == before ? null : convertImage());
+      } catch (CancellationException e) {
+        future.cancel(false);
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      } finally {
+        running = null;
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Gets and returns the most recent image, without applying any queued color transformations.
+   *
+   * @return                             The most recent image, or null if there is none.
+   */
+  private Image peekImage() {
+    return history.getUndoCount() == 0 ? null : history.peek();
+  }
+
+  /**
+   * Sets the number of threads transformations split their rows across. Small images are still
+   * processed on a single thread, and the results are the same for any number of threads. The
+   * threads of the previous parallelism are shut down, unless it is the same.
+   *
+   * @param threads                      The number of threads, or 1 to run sequentially.
+   * @throws IllegalArgumentException    if the number of threads is less than 1.
+   */
+  void setParallelism(int threads) throws IllegalArgumentException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Number of threads must be a positive integer");
+    }
+    if (threads == executor.getParallelism()) {
+      return;
+    }
+    executor.shutdown();
+    executor = threads == 1 ? RowExecutor.SEQUENTIAL : new RowExecutor(threads);
+    history.setExecutor(executor);
+  }
+
+  /**
+   * Sets the memory the history of images may use. Once it is used up, older images are
+   * compressed, and then dropped so that they can no longer be undone to. The most recent few
+   * images are always kept.
+   *
+   * @param bytes                        The memory the history may use, in bytes.
+   * @throws IllegalArgumentException    if the number of bytes is negative.
+   */
+  void setHistoryBudget(long bytes) throws IllegalArgumentException {
+    history.setBudget(bytes);
   }
 
+  /**
+   * Gets and returns a summary of how well the cache of transformation results is doing: how
+   * often a result was found, and how many results it holds.
+   *
+   * @return                             The statistics of the result cache.
+   */
+  String getCacheStatistics() {
+    return String.format("%d cache hits, %d misses (%.0f%%), %d results, %d MB",
+            results.getHits(), results.getMisses(), 100 * results.getHitRate(),
+            results.getCount(), results.getSize() >> 20);
+  }
 
   /**
-   * loads an image into the model, and stores it in the undoStack.
+   * loads an image into the model, and stores it in the history. If the image is mostly
+   * made of long runs of a single color, such as a graphic or a banner, it is stored run-length
+   * encoded.
    *
    * @param filename                  The name of the file containing the image.
    */
   void load(String filename) {
-    undoStack.push(new ImageRGB(filename));
+    flushColorTransformations();
+    Image loaded = new ImagePacked(filename);
+    ImageRLE encoded = ImageRLE.encode(loaded,
+            (long) loaded.getWidth() * loaded.getHeight() / RLE_PIXELS_PER_RUN);
+    history.push(encoded != null ? encoded : loaded);
   }
 
   /**
@@ -52,8 +337,9 @@ class Model {
    * @throws IllegalStateException    if there is no imaged to be saved.
    */
   void save(String filename) throws IllegalStateException {
+    flushColorTransformations();
     try {
-      undoStack.peek().write(filename);
+      history.peek().write(filename);
     } catch (EmptyStackException e) {
       throw new IllegalStateException("There is no image to save");
     }
@@ -64,11 +350,7 @@ class Model {
    * @throws IllegalStateException       if there is no file to apply the transformation to.
    */
   void greyScale() throws IllegalStateException {
-    try {
-      undoStack.push(new Greyscale().apply(undoStack.peek()));
-    } catch (EmptyStackException e) {
-      throw new IllegalStateException("There is no image to apply a filter to");
-    }
+    applyColorTransformation(new Greyscale());
   }
 
   /**
@@ -76,11 +358,7 @@ class Model {
    * @throws IllegalStateException       if there is no file to apply the transformation to.
    */
   void sepia() throws IllegalStateException {
-    try {
-      undoStack.push(new Sepia().apply(undoStack.peek()));
-    } catch (EmptyStackException e) {
-      throw new IllegalStateException("There is no image to apply a filter to");
-    }
+    applyColorTransformation(new Sepia());
   }
 
   /**
@@ -88,11 +366,7 @@ class Model {
    * @throws IllegalStateException       if there is no file to apply the transformation to.
    */
   void blur() throws IllegalStateException {
-    try {
-      undoStack.push(new Blur().apply(undoStack.peek()));
-    } catch (EmptyStackException e) {
-      throw new IllegalStateException("There is no image to apply a filter to");
-    }
+    applyTransformation(new Blur());
   }
 
   /**
@@ -100,26 +374,62 @@ class Model {
    * @throws IllegalStateException       if there is no file to apply the transformation to.
    */
   void dither() throws IllegalStateException {
-    try {
-      undoStack.push(new Dither().apply(undoStack.peek()));
-    } catch (EmptyStackException e) {
-      throw new IllegalStateException("There is no image to apply a filter to");
-    }
+    applyTransformation(new Dither());
   }
 
   /**
-   * Applies a mosaic transformation to an image.
+   * Applies an ordered dither transformation to an image, with a Bayer matrix of the given size.
    *
+   * @param size           The width and height of the matrix: 2, 4, 8 or 16.
+   * @throws IllegalStateException       if there is no file to apply the transformation to.
+   * @throws IllegalArgumentException    if the size is not 2, 4, 8 or 16.
+   */
+  void orderedDither(int size) throws IllegalStateException, IllegalArgumentException {
+    applyTransformation(new OrderedDither(size));
+  }
+
+  /**
+   * Applies a blue noise dither transformation to an image.
+   * @throws IllegalStateException       if there is no file to apply the transformation to.
+   */
+  void blueNoiseDither() throws IllegalStateException {
+    applyTransformation(new BlueNoiseDither());
+  }
+
+  /**
+   * Reduces an image to a palette of at most the given number of colors, and dithers it to
+   * that palette.
+   *
+   * @param colors         The largest number of colors in the palette, from 2 to 256.
+   * @throws IllegalStateException       if there is no file to apply the transformation to.
+   * @throws IllegalArgumentException    if the number of colors is less than 2 or more than 256.
+   */
+  void quantize(int colors) throws IllegalStateException, IllegalArgumentException {
+    applyTransformation(new Quantize(colors));
+  }
+
+  /**
+   * Applies a mosaic transformation to an image, with seeds placed at random. The mosaic is
+   * different every time, so its result is neither cached nor replayed, and is kept in the
+   * history as an image.
    *
    * @param seed           The number of seeds to create the mosaic with.
    * @throws IllegalStateException       if there is no file to apply the transformation to.
    */
   void mosaic(int seed) throws IllegalStateException {
-    try {
-      undoStack.push(new Mosaic(seed).apply(undoStack.peek()));
-    } catch (EmptyStackException e) {
-      throw new IllegalStateException("There is no image to apply a filter to");
-    }
+    applyTransformation(new Mosaic(seed));
+  }
+
+  /**
+   * Applies a mosaic transformation to an image, with seeds placed by a random number generator
+   * started from the given random seed, so that the same mosaic is produced every time.
+   *
+   * @param seed           The number of seeds to create the mosaic with.
+   * @param rngSeed        The seed of the random number generator that places the seeds.
+   * @throws IllegalStateException       if there is no file to apply the transformation to.
+   */
+  void mosaic(int seed, long rngSeed) throws IllegalStateException {
+    applyTransformation(new Mosaic(seed, rngSeed));
   }
 
   /**
@@ -127,11 +437,7 @@ class Model {
    * @throws IllegalStateException      if there is no file to apply the transformation to.
    */
   void sharpen() {
-    try {
-      undoStack.push(new Sharpen().apply(undoStack.peek()));
-    } catch (EmptyStackException e) {
-      throw new IllegalStateException("There is no image to apply a filter to");
-    }
+    applyTransformation(new Sharpen());
   }
 
   /**
@@ -140,7 +446,8 @@ class Model {
    * @param height                       The height of the flag.
    */
   void generateSwiss(int height) {
-    undoStack.push(new SwissGenerator(height).generate());
+    flushColorTransformations();
+    history.push(GeneratorCache.SHARED.generate(new SwissGenerator(height)));
   }
 
   /**
@@ -149,7 +456,8 @@ class Model {
    * @param height          The height of the flag.
    */
   void generateFrance(int height) {
-    undoStack.push(new FranceGenerator(height).generate());
+    flushColorTransformations();
+    history.push(GeneratorCache.SHARED.generate(new FranceGenerator(height)));
   }
 
   /**
@@ -158,7 +466,8 @@ class Model {
    * @param height          The height of the flag.
    */
   void generateGreece(int height) {
-    undoStack.push(new GreeceGenerator(height).generate());
+    flushColorTransformations();
+    history.push(GeneratorCache.SHARED.generate(new GreeceGenerator(height)));
   }
 
   /**
@@ -168,7 +477,8 @@ class Model {
    * @param height          The height of the flag.
    */
   void generateHorizontalRainbow(int width, int height) {
-    undoStack.push(new RainbowGenerator(width, height, false).generate());
+    flushColorTransformations();
+    history.push(GeneratorCache.SHARED.generate(new RainbowGenerator(width, height, false)));
   }
 
   /**
@@ -178,7 +488,8 @@ class Model {
    * @param height          The height of the flag.
    */
   void generateVerticalRainbow(int width, int height) {
-    undoStack.push(new RainbowGenerator(width, height, true).generate());
+    flushColorTransformations();
+    history.push(GeneratorCache.SHARED.generate(new RainbowGenerator(width, height, true)));
   }
 
   /**
@@ -187,9 +498,13 @@ class Model {
    * @param width           The width of the flag.
    * @param height          The height of the flag.
    * @param squareSize      The size of an individual checker on the flag.
+   * @throws IllegalArgumentException    if the width, height or square size is less than 1.
    */
-  void generateCheckerBoard(int width, int height, int squareSize) {
-    undoStack.push(new CheckerboardGenerator(width, height, squareSize).generate());
+  void generateCheckerBoard(int width, int height, int squareSize)
+          throws IllegalArgumentException {
+    flushColorTransformations();
+    history.push(GeneratorCache.SHARED.generate(
+            new CheckerboardGenerator(width, height, squareSize)));
   }
 
   /**
@@ -197,26 +512,9 @@ class Model {
    * @return The converted BufferedImage.
    */
   BufferedImage convertImage() throws IllegalStateException {
+    flushColorTransformations();
     try {
-      int[][][] rgb = undoStack.peek().getData();
-      int width = undoStack.peek().getWidth();
-      int height = undoStack.peek().getHeight();
-
-      BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int r = rgb[i][j][0];
-          int g = rgb[i][j][1];
-          int b = rgb[i][j][2];
-
-          int color = (r << 16) + (g << 8) + b;
-          output.setRGB(j, i, color);
-        }
-      }
-
-      return output;
+      return ImageUtil.toBufferedImage(history.peek());
     }
     catch (EmptyStackException e) {
       throw new IllegalStateException("Script is empty, enter commands to execute script");
@@ -230,10 +528,11 @@ class Model {
    * @throws IllegalStateException if there is no operation to undo.
    */
   void undoImage() throws IllegalStateException {
-    if (undoStack.size() <= 1) {
+    flushColorTransformations();
+    if (history.getUndoCount() <= 1) {
       throw new IllegalStateException("There are no operations to undo");
     }
-    redoStack.push(undoStack.pop());
+    history.undo();
 
   }
 
@@ -243,10 +542,11 @@ class Model {
    * @throws IllegalStateException if there is no operation to redo.
    */
   void redoImage() throws IllegalStateException {
-    if (redoStack.size() < 1) {
+    flushColorTransformations();
+    if (history.getRedoCount() < 1) {
       throw new IllegalStateException("There are no operations to redo");
     }
-    undoStack.push(redoStack.pop());
+    history.redo();
   }
 
   /**
@@ -254,12 +554,8 @@ class Model {
    * the view.
    */
   void deleteAll() {
-    while (!undoStack.empty()) {
-      undoStack.pop();
-    }
-    while (!redoStack.empty()) {
-      redoStack.pop();
-    }
+    pendingColorTransformations.clear();
+    history.clear();
   }
 }
 
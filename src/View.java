@@ -24,6 +24,7 @@ import javax.swing.JOptionPane;
  */
 public class View extends JFrame {
 
+  private String caption;
   private JPanel imagePanel;
 
   // Transformation menu buttons
@@ -85,6 +86,7 @@ public class View extends JFrame {
    */
   public View(String caption) {
     super(caption);
+    this.caption = caption;
 
     // Set up window
     setSize(800, 600);
@@ -505,6 +507,17 @@ public class View extends JFrame {
     JOptionPane.showMessageDialog(null, error);
   }
 
+  /**
+   * Shows how far the running operation has got in the title bar, or clears it once no
+   * operation is running.
+   *
+   * @param progress the share of the operation that is finished, from 0 to 1, or a negative
+   *                 number to clear it.
+   */
+  void displayProgress(double progress) {
+    setTitle(progress < 0 ? caption : caption + " (" + Math.round(100 * progress) + "%)");
+  }
+
   /**
    * Helper method to add items to the optionsPanel, adds height text box and its label.
    */
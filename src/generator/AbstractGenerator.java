@@ -1,17 +1,26 @@
 package generator;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 import image.Pixel;
 
 /**
  * This is an abstract class with methods that all generator classes implement. The constructor
  * takes a width and a height, sets up a space of that size, and by default fills it with zeros,
  * which equates to a black canvas. It includes methods to draw rectangles and stripes.
+ *
+ * <p>Drawing a rectangle only records it, clipped to the canvas. The generated image is a
+ * RectangleImage, which computes its pixels from the rectangles when they are read, so a
+ * generated image takes almost no memory however large it is. Each call to generate starts
+ * again from an empty list of rectangles, so a generator can be used more than once.
  */
 abstract class AbstractGenerator implements GeneratorInterface {
 
   int width;
   int height;
-  int[][][] data;
+  List<int[]> rectangles;
 
   Pixel red = new Pixel(255, 0, 0);
   Pixel orange = new Pixel(255, 165, 0);
@@ -25,8 +34,7 @@ abstract class AbstractGenerator implements GeneratorInterface {
   /**
    * Constructs a Generator object. A generator object has a given width and height, which
    * represent the width and height of the image to be generated. The Generator is also
-   * initialized with a 3d array of data, representing the data that comprises an image -
-   * height, width, and color (R/G/B channels).
+   * initialized with an empty list of the rectangles drawn on the canvas.
    *
    * @param width         The width of the images to be generated.
    * @param height        The height of the images to be generated.
@@ -38,12 +46,13 @@ abstract class AbstractGenerator implements GeneratorInterface {
     }
     this.width = width;
     this.height = height;
-    this.data = new int[height][width][3];
+    this.rectangles = new ArrayList<>();
   }
 
   /**
    * This method creates a rectangle and adds it to a specified drawing space. The rectangle is
-   * added to the object's data array in the generator.
+   * added to the object's list of rectangles in the generator. The rectangle is clipped to the
+   * canvas once, so any part of it that falls outside the canvas is skipped.
    *
    * @param rectWidth          The width of the rectangle to be added.
    * @param rectHeight         The height of the rectangle to be added.
@@ -58,18 +67,16 @@ abstract class AbstractGenerator implements GeneratorInterface {
     if (rectHeight < 1 || rectWidth < 1) {
       throw new IllegalArgumentException("height and width cannot be less than 1");
     }
-    for (int i = 0; i < rectHeight; i++) {
-      for (int j = 0; j < rectWidth; j++) {
-
-        try {
-          data[i + y][j + x][0] = color.getR();
-          data[i + y][j + x][1] = color.getG();
-          data[i + y][j + x][2] = color.getB();
-        } catch (ArrayIndexOutOfBoundsException e) {
-          continue;
-        }
-      }
+    int left = Math.max(0, x);
+    int right = (int) Math.min(width, (long) x + rectWidth);
+    int top = Math.max(0, y);
+    int bottom = (int) Math.min(height, (long) y + rectHeight);
+    if (left >= right || top >= bottom) {
+      return;
     }
+
+    rectangles.add(new int[]{left, top, right, bottom,
+        (color.getR() << 16) | (color.getG() << 8) | color.getB()});
   }
 
   /**
@@ -106,4 +113,33 @@ abstract class AbstractGenerator implements GeneratorInterface {
     }
   }
 
+  /**
+   * Determines if another object is a generator of the same kind, with the same parameters, so
+   * that it generates the same image. Generators that have more parameters than the width and
+   * height compare them too.
+   *
+   * @param other         The object to compare with.
+   * @return              True if the object generates the same image, false otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    AbstractGenerator generator = (AbstractGenerator) other;
+    return width == generator.width && height == generator.height;
+  }
+
+  /**
+   * Gets and returns a hash code built from the generator's kind, width and height.
+   *
+   * @return              The hash code of the generator.
+   */
+  @Override
+  public int hashCode() {
+    return Objects.hash(getClass().getName(), width, height);
+  }
 }
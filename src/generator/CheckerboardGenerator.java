@@ -1,7 +1,9 @@
 package generator;
 
+import java.util.Arrays;
+
 import image.Image;
-import image.ImageRGB;
+import image.ImageProcedural;
 import image.Pixel;
 
 /**
@@ -20,27 +22,131 @@ public class CheckerboardGenerator extends AbstractGenerator {
    * @param width      The width of the checkerboard.
    * @param height     The height of the checkerboard.
    * @param squareSize The size of an individual square on the checkerboard.
+   * @throws IllegalArgumentException if the height, width or square size is less than 1.
    */
-  public CheckerboardGenerator(int width, int height, int squareSize) {
+  public CheckerboardGenerator(int width, int height, int squareSize)
+          throws IllegalArgumentException {
     super(width, height);
+    if (squareSize < 1) {
+      throw new IllegalArgumentException("Square size cannot be less than 1");
+    }
     this.squareSize = squareSize;
   }
 
   /**
-   * Generates a checkerboard with the object's square size.
+   * Determines if another object is a generator of the same kind, with the same width, height
+   * and square size.
+   *
+   * @param other         The object to compare with.
+   * @return              True if the object generates the same image, false otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    return super.equals(other) && squareSize == ((CheckerboardGenerator) other).squareSize;
+  }
+
+  /**
+   * Gets and returns a hash code built from the generator's kind, width, height and
+   * square size.
+   *
+   * @return              The hash code of the generator.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * super.hashCode() + squareSize;
+  }
+
+  /**
+   * Generates a checkerboard with the object's square size. The checkerboard is computed from
+   * its square size as it is read, rather than drawn, so it takes almost no memory however
+   * large it is. Only whole squares are drawn, and any space left over at the right and bottom
+   * edges is black.
    *
    * @return The checkerboard.
    */
   public Image generate() {
-    for (int i = 0; i < this.height / squareSize; i++) {
-      for (int j = 0; j < this.width / squareSize; j++) {
-        if ((i + j) % 2 == 0) {
-          generateRectangle(squareSize, squareSize, j * squareSize, i * squareSize, white);
-        } else {
-          generateRectangle(squareSize, squareSize, j * squareSize, i * squareSize, black);
-        }
+    return new CheckerboardImage(width, height, squareSize,
+            (white.getR() << 16) | (white.getG() << 8) | white.getB(),
+            (black.getR() << 16) | (black.getG() << 8) | black.getB());
+  }
+
+  /**
+   * This class represents a generated checkerboard, whose pixels are computed on demand. The
+   * square in the top left corner is light.
+   */
+  private static class CheckerboardImage extends ImageProcedural {
+
+    private final int squareSize;
+    private final int light;
+    private final int dark;
+    private final int boardWidth;
+    private final int boardHeight;
+
+    /**
+     * Constructs a checkerboard image.
+     *
+     * @param width       The width of the image.
+     * @param height      The height of the image.
+     * @param squareSize  The size of an individual square.
+     * @param light       The color of the light squares, packed as 0xRRGGBB.
+     * @param dark        The color of the dark squares, packed as 0xRRGGBB.
+     */
+    private CheckerboardImage(int width, int height, int squareSize, int light, int dark) {
+      super(width, height);
+      this.squareSize = squareSize;
+      this.light = light;
+      this.dark = dark;
+      this.boardWidth = width / squareSize * squareSize;
+      this.boardHeight = height / squareSize * squareSize;
+    }
+
+    /**
+     * Computes and returns the color of a single pixel.
+     *
+     * @param x           The column of the pixel.
+     * @param y           The row of the pixel.
+     * @return            The color of the pixel.
+     */
+    public int getRGB(int x, int y) {
+      if (x >= boardWidth || y >= boardHeight) {
+        return 0;
+      }
+      return (x / squareSize + y / squareSize) % 2 == 0 ? light : dark;
+    }
+
+    /**
+     * Gets and returns the number of rows, starting at the given row, that are identical to it,
+     * which is the rest of its row of squares, or the rest of the image below the board.
+     *
+     * @param y           The first row.
+     * @return            The number of identical rows starting at y.
+     */
+    @Override
+    public int getRowRepeat(int y) {
+      if (y >= boardHeight) {
+        return getHeight() - y;
+      }
+      return squareSize - y % squareSize;
+    }
+
+    /**
+     * Computes a single row of the checkerboard, one square at a time.
+     *
+     * @param y           The row to be read.
+     * @param buffer      The array the row is written into.
+     * @param offset      The position in the buffer where the first pixel of the row is
+     *                    written.
+     */
+    @Override
+    public void getRow(int y, int[] buffer, int offset) {
+      Arrays.fill(buffer, offset + (y < boardHeight ? boardWidth : 0), offset + getWidth(), 0);
+      if (y >= boardHeight) {
+        return;
+      }
+      for (int x = 0, square = y / squareSize; x < boardWidth; x += squareSize, square++) {
+        Arrays.fill(buffer, offset + x, offset + x + squareSize,
+                square % 2 == 0 ? light : dark);
       }
     }
-    return new ImageRGB(data);
   }
 }
@@ -1,7 +1,7 @@
 package generator;
 
 import image.Image;
-import image.ImageRGB;
+import image.ImageRLE;
 import image.Pixel;
 
 /**
@@ -28,8 +28,9 @@ public class FranceGenerator extends AbstractGenerator {
    * @return                The french flag.
    */
   public Image generate() {
+    rectangles.clear();
     generateStripes(france, 3, true);
-    return new ImageRGB(data);
+    return ImageRLE.encode(new RectangleImage(width, height, rectangles));
   }
 
 
@@ -0,0 +1,143 @@
+package generator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import image.Image;
+
+/**
+ * This class remembers the images generated by generators, so that asking for the same image
+ * again returns the image already generated instead of generating it from scratch. Two
+ * generators give the same image if they are of the same kind and have the same parameters,
+ * which is what their equals method checks.
+ *
+ * <p>Generated images are never modified once generated, so the same image is safely shared
+ * by everyone who asks for it. The cache is bounded by the total estimated size of its images:
+ * when a new image would take it over its capacity, the least recently used images are dropped
+ * to make room. An image larger than the whole capacity is returned but not kept. The cache
+ * is safe to use from several threads at once, and counts how often an image was found.
+ */
+public class GeneratorCache {
+
+  /**
+   * The default capacity of a cache, in bytes.
+   */
+  public static final long DEFAULT_CAPACITY = 64L << 20;
+
+  /**
+   * A cache with the default capacity, shared by everything that generates images.
+   */
+  public static final GeneratorCache SHARED = new GeneratorCache(DEFAULT_CAPACITY);
+
+  private final long capacity;
+  private final Map<GeneratorInterface, Image> images;
+  private long size;
+  private long hits;
+  private long misses;
+
+  /**
+   * Constructs an empty cache with the given capacity.
+   *
+   * @param capacity                        The largest total size of the cached images, in
+   *                                        bytes.
+   * @throws IllegalArgumentException       if the capacity is negative.
+   */
+  public GeneratorCache(long capacity) throws IllegalArgumentException {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity cannot be negative");
+    }
+    this.capacity = capacity;
+    this.images = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Gets and returns the image the given generator generates, from the cache if it is there,
+   * or by generating it otherwise. The generator is kept as the key of the image, so it must
+   * not be changed afterwards.
+   *
+   * <p>Generating happens outside the cache's lock, so a slow generator does not hold up
+   * other threads. If two threads generate the same image at once, both are returned and the
+   * first one cached is kept.
+   *
+   * @param generator                       The generator of the image.
+   * @return                                The generated image.
+   */
+  public Image generate(GeneratorInterface generator) {
+    synchronized (this) {
+      Image cached = images.get(generator);
+      if (cached != null) {
+        hits++;
+        return cached;
+      }
+      misses++;
+    }
+
+    Image generated = generator.generate();
+    long imageSize = generated.getByteSize();
+    if (imageSize > capacity) {
+      return generated;
+    }
+
+    synchronized (this) {
+      Image previous = images.putIfAbsent(generator, generated);
+      if (previous != null) {
+        return previous;
+      }
+      size += imageSize;
+      Iterator<Image> eldest = images.values().iterator();
+      while (size > capacity) {
+        size -= eldest.next().getByteSize();
+        eldest.remove();
+      }
+    }
+    return generated;
+  }
+
+  /**
+   * Gets and returns the number of times an image was found in the cache.
+   *
+   * @return                                The number of hits.
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Gets and returns the number of times an image was not found in the cache, and had to be
+   * generated.
+   *
+   * @return                                The number of misses.
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Gets and returns the total estimated size of the cached images.
+   *
+   * @return                                The size of the cache, in bytes.
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  /**
+   * Gets and returns the number of cached images.
+   *
+   * @return                                The number of cached images.
+   */
+  public synchronized int getCount() {
+    return images.size();
+  }
+
+  /**
+   * Drops every cached image, and resets the hit and miss counts.
+   */
+  public synchronized void clear() {
+    images.clear();
+    size = 0;
+    hits = 0;
+    misses = 0;
+  }
+}
@@ -1,7 +1,7 @@
 package generator;
 
 import image.Image;
-import image.ImageRGB;
+import image.ImageRLE;
 import image.Pixel;
 
 /**
@@ -29,6 +29,7 @@ public class GreeceGenerator extends AbstractGenerator {
    * @return                The Greek flag.
    */
   public Image generate() {
+    rectangles.clear();
     generateStripes(greece, 9, false);
     int cornerWidth = (int) Math.ceil(width * 10.0 / 27.0);
     int crossWidth = (int) Math.ceil(width * 2.0 / 27.0);
@@ -36,7 +37,7 @@ public class GreeceGenerator extends AbstractGenerator {
     generateRectangle(crossWidth, cornerWidth, 2 * crossWidth, 0, white);
     generateRectangle(cornerWidth, crossWidth, 0, 2 * crossWidth, white);
 
-    return new ImageRGB(data);
+    return ImageRLE.encode(new RectangleImage(width, height, rectangles));
   }
 
 }
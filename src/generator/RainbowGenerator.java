@@ -1,7 +1,7 @@
 package generator;
 
 import image.Image;
-import image.ImageRGB;
+import image.ImageRLE;
 import image.Pixel;
 
 /**
@@ -26,14 +26,38 @@ public class RainbowGenerator extends AbstractGenerator {
     this.vertical = vertical;
   }
 
+  /**
+   * Determines if another object is a generator of the same kind, with the same width, height
+   * and stripe direction.
+   *
+   * @param other         The object to compare with.
+   * @return              True if the object generates the same image, false otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    return super.equals(other) && vertical == ((RainbowGenerator) other).vertical;
+  }
+
+  /**
+   * Gets and returns a hash code built from the generator's kind, width, height and
+   * stripe direction.
+   *
+   * @return              The hash code of the generator.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * super.hashCode() + Boolean.hashCode(vertical);
+  }
+
   /**
    * Generates a rainbow flag with 7 vertical stripes, one for each color of the rainbow.
    *
    * @return             The vertical rainbow.
    */
   public Image generate() {
+    rectangles.clear();
     generateStripes(rainbow, 7, vertical);
-    return new ImageRGB(data);
+    return ImageRLE.encode(new RectangleImage(width, height, rectangles));
   }
 
 }
@@ -0,0 +1,125 @@
+package generator;
+
+import java.util.Arrays;
+import java.util.List;
+
+import image.ImageProcedural;
+
+/**
+ * This class represents a generated image made of solid rectangles on a black canvas, such as a
+ * flag. Only the rectangles are stored, and pixels are computed from them on demand. Rectangles
+ * are painted in the order they were drawn, so a later rectangle covers an earlier one.
+ *
+ * <p>Each rectangle is stored as 5 ints: its left column, top row, the column and row just past
+ * its right and bottom edges, all clipped to the canvas, and its color packed as 0xRRGGBB.
+ */
+class RectangleImage extends ImageProcedural {
+
+  private final int[][] rectangles;
+
+  /**
+   * Constructs an image of the given size from the given rectangles.
+   *
+   * @param width           The width of the image.
+   * @param height          The height of the image.
+   * @param rectangles      The rectangles, in the order they were drawn.
+   */
+  RectangleImage(int width, int height, List<int[]> rectangles) {
+    super(width, height);
+    this.rectangles = rectangles.toArray(new int[0][]);
+  }
+
+  /**
+   * Computes and returns the color of a single pixel, which is the color of the last rectangle
+   * drawn over it, or black if there is none.
+   *
+   * @param x               The column of the pixel.
+   * @param y               The row of the pixel.
+   * @return                The color of the pixel.
+   */
+  public int getRGB(int x, int y) {
+    for (int i = rectangles.length - 1; i >= 0; i--) {
+      int[] rect = rectangles[i];
+      if (x >= rect[0] && y >= rect[1] && x < rect[2] && y < rect[3]) {
+        return rect[4];
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Computes a single row of the image, by filling it with black and then filling the span of
+   * each rectangle that crosses it.
+   *
+   * @param y               The row to be read.
+   * @param buffer          The array the row is written into.
+   * @param offset          The position in the buffer where the first pixel of the row is
+   *                        written.
+   */
+  @Override
+  public void getRow(int y, int[] buffer, int offset) {
+    Arrays.fill(buffer, offset, offset + getWidth(), 0);
+    for (int[] rect : rectangles) {
+      if (y >= rect[1] && y < rect[3]) {
+        Arrays.fill(buffer, offset + rect[0], offset + rect[2], rect[4]);
+      }
+    }
+  }
+
+  /**
+   * Gets and returns the number of rows, starting at the given row, that are identical to it.
+   * Rows can only differ where a rectangle starts or ends, so this is the distance to the next
+   * top or bottom edge below the row.
+   *
+   * @param y               The first row.
+   * @return                The number of identical rows starting at y.
+   */
+  @Override
+  public int getRowRepeat(int y) {
+    int next = getHeight();
+    for (int[] rect : rectangles) {
+      if (rect[1] > y) {
+        next = Math.min(next, rect[1]);
+      }
+      if (rect[3] > y) {
+        next = Math.min(next, rect[3]);
+      }
+    }
+    return next - y;
+  }
+
+  /**
+   * Gets and returns an estimate of the memory the image's data takes up, adding about 40 bytes
+   * for each rectangle stored.
+   *
+   * @return                The estimated size of the image's data, in bytes.
+   */
+  @Override
+  public long getByteSize() {
+    return super.getByteSize() + 40L * rectangles.length;
+  }
+
+  /**
+   * Computes the whole image as packed pixels. Each rectangle's first row is filled, and then
+   * copied to each of its other rows.
+   *
+   * @return                The image's pixels.
+   * @throws IllegalStateException    if the image is too large to hold in an array.
+   */
+  @Override
+  public int[] getPixels() throws IllegalStateException {
+    int width = getWidth();
+    if ((long) width * getHeight() > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Image is too large to hold in memory");
+    }
+    int[] pixels = new int[width * getHeight()];
+    for (int[] rect : rectangles) {
+      int firstRow = rect[1] * width + rect[0];
+      Arrays.fill(pixels, firstRow, firstRow + rect[2] - rect[0], rect[4]);
+      for (int i = rect[1] + 1; i < rect[3]; i++) {
+        System.arraycopy(pixels, firstRow, pixels, i * width + rect[0], rect[2] - rect[0]);
+      }
+    }
+    return pixels;
+  }
+}
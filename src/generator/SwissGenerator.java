@@ -1,7 +1,7 @@
 package generator;
 
 import image.Image;
-import image.ImageRGB;
+import image.ImageRLE;
 
 /**
  * This class generates a Swiss flag with square proportions.
@@ -24,6 +24,7 @@ public class SwissGenerator extends AbstractGenerator {
    * @return the Swiss flag.
    */
   public Image generate() {
+    rectangles.clear();
     int crossHeight = height * 5 / 8;
     int crossThickness = height / 6;
 
@@ -33,6 +34,6 @@ public class SwissGenerator extends AbstractGenerator {
     this.generateRectangle(crossHeight, crossThickness, height / 6,
             (int) (height * 13.0 / 32.0), white);
 
-    return new ImageRGB(data);
+    return ImageRLE.encode(new RectangleImage(width, height, rectangles));
   }
 }
@@ -2,8 +2,8 @@ package image;
 
 /**
  * This interface represents all methods that an image implementation is expected to support.
- * Images can be loaded in from a filepath, and its width, height, and a 3d array of pixels
- * representing the image's data can be built.
+ * Images can be loaded in from a filepath, and its width, height, and a 3d array or a packed
+ * array of pixels representing the image's data can be built.
  */
 public interface Image {
 
@@ -28,9 +28,43 @@ public interface Image {
 
   /**
    * This method creates a copy of the image's data, and returns the copy to
-   * the calling object.
+   * the calling object. Callers that only need to read the image should use getRGB or
+   * getRow instead, which do not copy the whole image.
    * @return           A copy of the image's data.
    */
   int[][][] getData();
 
+  /**
+   * This method creates a copy of the image's pixels as a flat array, and returns the copy to
+   * the calling object. Pixels are stored row by row, one int per pixel packed as 0xRRGGBB.
+   * @return           A copy of the image's pixels.
+   */
+  int[] getPixels();
+
+  /**
+   * Gets and returns the color of a single pixel, packed as 0xRRGGBB. The image is read in
+   * place, without making a copy of its data.
+   * @param x          The column of the pixel.
+   * @param y          The row of the pixel.
+   * @return           The color of the pixel.
+   */
+  int getRGB(int x, int y);
+
+  /**
+   * Copies a single row of the image's pixels into the given buffer, packed as 0xRRGGBB. Only
+   * the row is copied, so a caller can read the whole image one row at a time without making
+   * a copy of its data.
+   * @param y          The row to be read.
+   * @param buffer     The array the row is copied into.
+   * @param offset     The position in the buffer where the first pixel of the row is written.
+   */
+  void getRow(int y, int[] buffer, int offset);
+
+  /**
+   * Gets and returns an estimate of the memory the image's data takes up, in bytes. This is
+   * used to keep caches and histories of images within a memory budget.
+   * @return           The estimated size of the image's data, in bytes.
+   */
+  long getByteSize();
+
 }
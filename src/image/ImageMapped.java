@@ -0,0 +1,196 @@
+package image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class stores an image in a file rather than on the heap, as three bytes per pixel, row
+ * by row. The file is memory-mapped, so its pixels are paged in by the operating system as
+ * they are read, and paged out again when memory is needed elsewhere. Nothing is read until a
+ * pixel or row is asked for.
+ *
+ * <p>A single mapping cannot be larger than 2GB, so the image is mapped as segments of whole
+ * rows that each fit in one mapping.
+ */
+public class ImageMapped implements Image {
+
+  private int width;
+  private int height;
+  private int rowsPerSegment;
+  private ByteBuffer[] segments;
+
+  /**
+   * Constructs an image.ImageMapped object from its mapped segments.
+   *
+   * @param width                           the width of the image.
+   * @param height                          the height of the image.
+   * @param rowsPerSegment                  the number of rows in each segment.
+   * @param segments                        the read-only mapped segments.
+   */
+  private ImageMapped(int width, int height, int rowsPerSegment, ByteBuffer[] segments) {
+    this.width = width;
+    this.height = height;
+    this.rowsPerSegment = rowsPerSegment;
+    this.segments = segments;
+  }
+
+  /**
+   * Writes an image into a file at the given position, and returns an image that reads it back
+   * from there. The image is read one row at a time, so it is never held whole on the heap.
+   * The region written must not be written again while the returned image is in use.
+   *
+   * @param image                           the image to be written.
+   * @param channel                         the file, open for reading and writing.
+   * @param position                        the position in the file to write the image at.
+   * @return                                the image, read from the file.
+   * @throws IOException                    if the image cannot be written to the file.
+   */
+  public static ImageMapped write(Image image, FileChannel channel, long position)
+          throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int rowsPerSegment = Math.max(1, Integer.MAX_VALUE / (3 * width));
+    ByteBuffer[] segments = new ByteBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+    int[] row = new int[width];
+    byte[] bytes = new byte[3 * width];
+
+    for (int segment = 0; segment < segments.length; segment++) {
+      int first = segment * rowsPerSegment;
+      int rows = Math.min(rowsPerSegment, height - first);
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+              position + 3L * width * first, 3L * width * rows);
+      for (int i = first; i < first + rows; i++) {
+        image.getRow(i, row, 0);
+        for (int j = 0; j < width; j++) {
+          bytes[3 * j] = (byte) (row[j] >> 16);
+          bytes[3 * j + 1] = (byte) (row[j] >> 8);
+          bytes[3 * j + 2] = (byte) row[j];
+        }
+        mapped.put(bytes);
+      }
+      segments[segment] = mapped.asReadOnlyBuffer();
+    }
+    return new ImageMapped(width, height, rowsPerSegment, segments);
+  }
+
+  /**
+   * Gets and returns the number of bytes the image takes up in its file.
+   *
+   * @param width                           the width of the image.
+   * @param height                          the height of the image.
+   * @return                                the size of the image in its file, in bytes.
+   */
+  public static long getFileSize(int width, int height) {
+    return 3L * width * height;
+  }
+
+  /**
+   * This method writes and outputs an image, using the provided filename. Rows are read from
+   * the mapped file as the encoder asks for them.
+   *
+   * @param filename                        The name of the file to be outputted.
+   * @throws IllegalArgumentException       If the file cannot be written to the provided path.
+   */
+  public void write(String filename) throws IllegalArgumentException {
+    try {
+      ImageUtil.writeImage(this, filename);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("File cannot be written to provided path");
+    }
+  }
+
+  /**
+   * This method reads the image into a 3d array, and returns it to the calling object.
+   *
+   * @return                                The image's data.
+   */
+  public int[][][] getData() {
+    int[][][] data = new int[height][width][3];
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      getRow(i, row, 0);
+      for (int j = 0; j < width; j++) {
+        data[i][j][0] = (row[j] >> 16) & 0xFF;
+        data[i][j][1] = (row[j] >> 8) & 0xFF;
+        data[i][j][2] = row[j] & 0xFF;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * This method reads the image into packed pixels, and returns them to the calling object.
+   *
+   * @return                                The image's pixels.
+   */
+  public int[] getPixels() {
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < height; i++) {
+      getRow(i, pixels, i * width);
+    }
+    return pixels;
+  }
+
+  /**
+   * Gets and returns the color of a single pixel, read from the mapped file.
+   *
+   * @param x                               The column of the pixel.
+   * @param y                               The row of the pixel.
+   * @return                                The color of the pixel.
+   */
+  public int getRGB(int x, int y) {
+    ByteBuffer segment = segments[y / rowsPerSegment];
+    int index = 3 * ((y % rowsPerSegment) * width + x);
+    return (segment.get(index) & 0xFF) << 16 | (segment.get(index + 1) & 0xFF) << 8
+            | segment.get(index + 2) & 0xFF;
+  }
+
+  /**
+   * Reads a single row of the image from the mapped file into the given buffer. Reads only use
+   * absolute positions, so several threads can read rows at once.
+   *
+   * @param y                               The row to be read.
+   * @param buffer                          The array the row is written into.
+   * @param offset                          The position in the buffer where the first pixel
+   *                                        of the row is written.
+   */
+  public void getRow(int y, int[] buffer, int offset) {
+    ByteBuffer segment = segments[y / rowsPerSegment];
+    int index = 3 * (y % rowsPerSegment) * width;
+    for (int j = 0; j < width; j++, index += 3) {
+      buffer[offset + j] = (segment.get(index) & 0xFF) << 16
+              | (segment.get(index + 1) & 0xFF) << 8 | segment.get(index + 2) & 0xFF;
+    }
+  }
+
+  /**
+   * Gets and returns an estimate of the heap the image's data takes up. The pixels are held in
+   * the mapped file, and paged in and out by the operating system, so only a small fixed size
+   * is counted.
+   *
+   * @return                                The estimated size of the image's data, in bytes.
+   */
+  public long getByteSize() {
+    return 64 + 16L * segments.length;
+  }
+
+  /**
+   * Gets and returns the width of the image.
+   *
+   * @return                               The width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets and returns the height of the image.
+   *
+   * @return                               The height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+}
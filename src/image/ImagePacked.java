@@ -0,0 +1,171 @@
+package image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * This class stores image data as a single flat array with one int per pixel. Pixels are
+ * stored row by row, and each int holds the red, green and blue channels of a pixel packed as
+ * 0xRRGGBB. The height and width of the image is also stored.
+ */
+public class ImagePacked implements Image {
+
+  private int[] pixels;
+  private int width;
+  private int height;
+
+  /**
+   * Constructs an image.ImagePacked object using the given filename. An image object
+   * is loaded and decoded once, and the width, height, and packed pixels of the image are
+   * determined from the decoded image and stored as height, width, and pixels.
+   *
+   * @param filename                        the path of the image file to be loaded.
+   * @throws IllegalArgumentException       if the given filename cannot be found.
+   */
+  public ImagePacked(String filename) throws IllegalArgumentException {
+    try {
+      BufferedImage input = ImageUtil.readBufferedImage(filename);
+      this.pixels = ImageUtil.getPackedPixels(input);
+      this.width = input.getWidth();
+      this.height = input.getHeight();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("File not found");
+    }
+  }
+
+  /**
+   * Constructs an image.ImagePacked object from the given packed pixels. The array is used
+   * directly rather than copied, so the caller must not modify it afterwards.
+   *
+   * @param width                           the width of the image.
+   * @param height                          the height of the image.
+   * @param pixels                          the pixels of the image, row by row, as 0xRRGGBB.
+   * @throws IllegalArgumentException       if the width or height is less than 1, or the
+   *                                        number of pixels does not match them.
+   */
+  public ImagePacked(int width, int height, int[] pixels) throws IllegalArgumentException {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Height and width cannot be less than 1");
+    }
+    if (pixels.length != width * height) {
+      throw new IllegalArgumentException("Number of pixels must equal width times height");
+    }
+    this.pixels = pixels;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * This method writes and outputs an image, using the provided filename.
+   *
+   * @param filename                        The name of the file to be outputted.
+   * @throws IllegalArgumentException       If the file cannot be written to the provided path.
+   */
+  public void write(String filename) throws IllegalArgumentException {
+    try {
+      ImageUtil.writeImage(pixels, width, height, filename);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("File cannot be written to provided path");
+    }
+  }
+
+  /**
+   * This method creates a copy of the image's data as a 3d array, and returns the copy to the
+   * calling object.
+   *
+   * @return                                A copy of the image's data.
+   */
+  public int[][][] getData() {
+    int[][][] dataCopy = new int[height][width][3];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int color = pixels[i * width + j];
+        dataCopy[i][j][0] = (color >> 16) & 0xFF;
+        dataCopy[i][j][1] = (color >> 8) & 0xFF;
+        dataCopy[i][j][2] = color & 0xFF;
+      }
+    }
+    return dataCopy;
+  }
+
+  /**
+   * This method creates a copy of the image's packed pixels, and returns the copy to the
+   * calling object.
+   *
+   * @return                                A copy of the image's pixels.
+   */
+  public int[] getPixels() {
+    return pixels.clone();
+  }
+
+  /**
+   * Gets and returns the color of a single pixel, packed as 0xRRGGBB.
+   *
+   * @param x                               The column of the pixel.
+   * @param y                               The row of the pixel.
+   * @return                                The color of the pixel.
+   */
+  public int getRGB(int x, int y) {
+    return pixels[y * width + x];
+  }
+
+  /**
+   * Copies a single row of the image's pixels into the given buffer.
+   *
+   * @param y                               The row to be read.
+   * @param buffer                          The array the row is copied into.
+   * @param offset                          The position in the buffer where the first pixel
+   *                                        of the row is written.
+   */
+  public void getRow(int y, int[] buffer, int offset) {
+    System.arraycopy(pixels, y * width, buffer, offset, width);
+  }
+
+  /**
+   * Gets and returns an estimate of the memory the image's data takes up, which is 4 bytes per
+   * pixel.
+   *
+   * @return                                The estimated size of the image's data, in bytes.
+   */
+  public long getByteSize() {
+    return 4L * pixels.length;
+  }
+
+  /**
+   * Gets and returns the width of the image.
+   *
+   * @return                               The width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets and returns the height of the image.
+   *
+   * @return                               The height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * This builds a string representation of each image (x position, y position, 3 channels
+   * per pixel) and returns the string.
+   *
+   * @return The string representation of an image.
+   */
+  public String toString() {
+    StringBuilder str = new StringBuilder("");
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int color = pixels[i * width + j];
+        str.append("(" + ((color >> 16) & 0xFF) + "," + ((color >> 8) & 0xFF) + ","
+                + (color & 0xFF) + ")");
+      }
+      str.append("\n");
+    }
+    return str.toString();
+  }
+
+}
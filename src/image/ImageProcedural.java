@@ -0,0 +1,154 @@
+package image;
+
+import java.io.IOException;
+
+/**
+ * This class represents an image whose pixels are computed on demand rather than stored, such
+ * as a generated flag or checkerboard. Only the width and height are stored. A subclass
+ * computes the color of a single pixel, and may compute whole rows more quickly.
+ *
+ * <p>Reading the image one pixel or one row at a time never holds more than that in memory,
+ * and writing it to a file hands the encoder one row at a time, so an image far larger than
+ * the heap can be generated and written. Only getData and getPixels build the whole image,
+ * and they can only do so if it fits in a single array.
+ */
+public abstract class ImageProcedural implements Image {
+
+  private int width;
+  private int height;
+
+  /**
+   * Constructs a procedural image of the given size.
+   *
+   * @param width                           the width of the image.
+   * @param height                          the height of the image.
+   * @throws IllegalArgumentException       if the width or height is less than 1.
+   */
+  protected ImageProcedural(int width, int height) throws IllegalArgumentException {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Height and width cannot be less than 1");
+    }
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Computes and returns the color of a single pixel, packed as 0xRRGGBB.
+   *
+   * @param x                               The column of the pixel.
+   * @param y                               The row of the pixel.
+   * @return                                The color of the pixel.
+   */
+  public abstract int getRGB(int x, int y);
+
+  /**
+   * Computes a single row of the image's pixels into the given buffer. By default each pixel
+   * is computed with getRGB.
+   *
+   * @param y                               The row to be read.
+   * @param buffer                          The array the row is written into.
+   * @param offset                          The position in the buffer where the first pixel
+   *                                        of the row is written.
+   */
+  public void getRow(int y, int[] buffer, int offset) {
+    for (int j = 0; j < width; j++) {
+      buffer[offset + j] = getRGB(j, y);
+    }
+  }
+
+  /**
+   * Gets and returns the number of rows, starting at the given row, that are known to be
+   * identical to it. This lets a reader that only needs distinct rows, such as ImageRLE's
+   * encoder, skip computing the rest. By default each row is only known to match itself.
+   *
+   * @param y                               The first row.
+   * @return                                The number of identical rows starting at y, which
+   *                                        is at least 1.
+   */
+  public int getRowRepeat(int y) {
+    return 1;
+  }
+
+  /**
+   * This method writes and outputs an image, using the provided filename. Rows are computed
+   * as the encoder asks for them, so the whole image is never held in memory by formats that
+   * are encoded row by row, such as PNG.
+   *
+   * @param filename                        The name of the file to be outputted.
+   * @throws IllegalArgumentException       If the file cannot be written to the provided path.
+   */
+  public void write(String filename) throws IllegalArgumentException {
+    try {
+      ImageUtil.writeImage(this, filename);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("File cannot be written to provided path");
+    }
+  }
+
+  /**
+   * This method computes the whole image as a 3d array, and returns it to the calling object.
+   *
+   * @return                                The image's data.
+   * @throws IllegalStateException          if the image is too large to hold in an array.
+   */
+  public int[][][] getData() throws IllegalStateException {
+    int[] pixels = getPixels();
+    int[][][] data = new int[height][width][3];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        int color = pixels[i * width + j];
+        data[i][j][0] = (color >> 16) & 0xFF;
+        data[i][j][1] = (color >> 8) & 0xFF;
+        data[i][j][2] = color & 0xFF;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * This method computes the whole image as packed pixels, row by row, and returns them to the
+   * calling object.
+   *
+   * @return                                The image's pixels.
+   * @throws IllegalStateException          if the image is too large to hold in an array.
+   */
+  public int[] getPixels() throws IllegalStateException {
+    if ((long) width * height > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Image is too large to hold in memory");
+    }
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < height; i++) {
+      getRow(i, pixels, i * width);
+    }
+    return pixels;
+  }
+
+  /**
+   * Gets and returns an estimate of the memory the image's data takes up. A procedural image
+   * stores no pixels, so by default this is a small fixed size. Subclasses that store more
+   * should add it.
+   *
+   * @return                                The estimated size of the image's data, in bytes.
+   */
+  public long getByteSize() {
+    return 64;
+  }
+
+  /**
+   * Gets and returns the width of the image.
+   *
+   * @return                               The width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets and returns the height of the image.
+   *
+   * @return                               The height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+}
@@ -1,5 +1,6 @@
 package image;
 
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 /**
@@ -16,17 +17,18 @@ public class ImageRGB implements Image {
 
   /**
    * Constructs an image.ImageRGB object using the given filename. An image object
-   * is loaded, and the width, height, and 3d array of the image are determined and stores
-   * as height, width, and data.
+   * is loaded and decoded once, and the width, height, and 3d array of the image are
+   * determined from the decoded image and stored as height, width, and data.
    *
    * @param filename                        the path of the image file to be loaded.
    * @throws IllegalArgumentException       if the given filename cannot be found.
    */
   public ImageRGB(String filename) throws IllegalArgumentException {
     try {
-      this.data = ImageUtil.readImage(filename);
-      this.width = ImageUtil.getWidth(filename);
-      this.height = ImageUtil.getHeight(filename);
+      BufferedImage input = ImageUtil.readBufferedImage(filename);
+      this.data = ImageUtil.getData(input);
+      this.width = input.getWidth();
+      this.height = input.getHeight();
     } catch (IOException e) {
       throw new IllegalArgumentException("File not found");
     }
@@ -76,6 +78,60 @@ public class ImageRGB implements Image {
     return dataCopy;
   }
 
+  /**
+   * This method creates a copy of the image's data packed as one int per pixel, and returns
+   * the copy to the calling object.
+   *
+   * @return                                A copy of the image's pixels.
+   */
+  public int[] getPixels() {
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        pixels[i * width + j] = (data[i][j][0] << 16) | (data[i][j][1] << 8) | data[i][j][2];
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Gets and returns the color of a single pixel, packed as 0xRRGGBB.
+   *
+   * @param x                               The column of the pixel.
+   * @param y                               The row of the pixel.
+   * @return                                The color of the pixel.
+   */
+  public int getRGB(int x, int y) {
+    int[] pixel = data[y][x];
+    return (pixel[0] << 16) | (pixel[1] << 8) | pixel[2];
+  }
+
+  /**
+   * Copies a single row of the image's pixels into the given buffer, packed as 0xRRGGBB.
+   *
+   * @param y                               The row to be read.
+   * @param buffer                          The array the row is copied into.
+   * @param offset                          The position in the buffer where the first pixel
+   *                                        of the row is written.
+   */
+  public void getRow(int y, int[] buffer, int offset) {
+    int[][] row = data[y];
+    for (int j = 0; j < width; j++) {
+      buffer[offset + j] = (row[j][0] << 16) | (row[j][1] << 8) | row[j][2];
+    }
+  }
+
+  /**
+   * Gets and returns an estimate of the memory the image's data takes up. Each pixel is its own
+   * array of 3 ints, which takes about 32 bytes with its header and padding, plus a reference
+   * to it from its row.
+   *
+   * @return                                The estimated size of the image's data, in bytes.
+   */
+  public long getByteSize() {
+    return 40L * width * height;
+  }
+
   /**
    * Gets and returns the width of the image.
    *
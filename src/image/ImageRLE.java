@@ -0,0 +1,283 @@
+package image;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * This class stores an image as runs of identical pixels. Each row is a list of runs, where a
+ * run is a color and the column just past its last pixel. A row that is identical to the row
+ * above it shares that row's runs rather than storing its own. Images dominated by large areas
+ * of a single color, such as flags and banners, take a few runs per distinct row instead of one
+ * int per pixel.
+ *
+ * <p>A transformation that changes each color on its own, without looking at its position or
+ * its neighbors, can be applied to every run once with mapColors, rather than to every pixel.
+ */
+public class ImageRLE implements Image {
+
+  private int width;
+  private int height;
+  private int[] rowIds;
+  private int[][] runEnds;
+  private int[][] runColors;
+
+  /**
+   * Constructs an image.ImageRLE object from its runs.
+   *
+   * @param width                           the width of the image.
+   * @param height                          the height of the image.
+   * @param rowIds                          the distinct row each row of the image uses.
+   * @param runEnds                         for each distinct row, the column just past the
+   *                                        last pixel of each run.
+   * @param runColors                       for each distinct row, the color of each run,
+   *                                        packed as 0xRRGGBB.
+   */
+  private ImageRLE(int width, int height, int[] rowIds, int[][] runEnds, int[][] runColors) {
+    this.width = width;
+    this.height = height;
+    this.rowIds = rowIds;
+    this.runEnds = runEnds;
+    this.runColors = runColors;
+  }
+
+  /**
+   * Encodes an image as runs. Each row is read once, and compared with the row above it so that
+   * identical rows are stored once. If the image is a procedural image that knows some of its
+   * rows repeat, those rows are not read at all.
+   *
+   * @param image                           the image to be encoded.
+   * @return                                the encoded image.
+   */
+  public static ImageRLE encode(Image image) {
+    return encode(image, Long.MAX_VALUE);
+  }
+
+  /**
+   * Encodes an image as runs, giving up as soon as more than the given number of runs is
+   * needed. This is used to find out whether an image is worth encoding, without holding a
+   * badly compressed copy of it.
+   *
+   * @param image                           the image to be encoded.
+   * @param maxRuns                         the largest number of runs to store.
+   * @return                                the encoded image, or null if it needs more than
+   *                                        the given number of runs.
+   */
+  public static ImageRLE encode(Image image, long maxRuns) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    ImageProcedural procedural = image instanceof ImageProcedural ? (ImageProcedural) image
+            : null;
+    int[] rowIds = new int[height];
+    int[][] runEnds = new int[16][];
+    int[][] runColors = new int[16][];
+    int distinctRows = 0;
+    long runs = 0;
+
+    int[] row = new int[width];
+    int[] previous = new int[width];
+    for (int y = 0; y < height; ) {
+      image.getRow(y, row, 0);
+      if (y == 0 || !Arrays.equals(row, previous)) {
+        if (distinctRows == runEnds.length) {
+          runEnds = Arrays.copyOf(runEnds, 2 * distinctRows);
+          runColors = Arrays.copyOf(runColors, 2 * distinctRows);
+        }
+        encodeRow(row, runEnds, runColors, distinctRows);
+        runs += runEnds[distinctRows].length;
+        if (runs > maxRuns) {
+          return null;
+        }
+        distinctRows++;
+
+        int[] swap = previous;
+        previous = row;
+        row = swap;
+      }
+
+      int repeat = procedural == null ? 1 : Math.max(1, procedural.getRowRepeat(y));
+      for (int end = Math.min(height, y + repeat); y < end; y++) {
+        rowIds[y] = distinctRows - 1;
+      }
+    }
+    return new ImageRLE(width, height, rowIds, Arrays.copyOf(runEnds, distinctRows),
+            Arrays.copyOf(runColors, distinctRows));
+  }
+
+  /**
+   * Splits a row of packed pixels into runs, and stores them as the given distinct row.
+   *
+   * @param row                             the row of packed pixels.
+   * @param runEnds                         the run ends of every distinct row.
+   * @param runColors                       the run colors of every distinct row.
+   * @param id                              the distinct row the runs are stored as.
+   */
+  private static void encodeRow(int[] row, int[][] runEnds, int[][] runColors, int id) {
+    int runs = 1;
+    for (int j = 1; j < row.length; j++) {
+      if (row[j] != row[j - 1]) {
+        runs++;
+      }
+    }
+    int[] ends = new int[runs];
+    int[] colors = new int[runs];
+    int run = 0;
+    for (int j = 1; j < row.length; j++) {
+      if (row[j] != row[j - 1]) {
+        ends[run] = j;
+        colors[run] = row[j - 1];
+        run++;
+      }
+    }
+    ends[run] = row.length;
+    colors[run] = row[row.length - 1];
+    runEnds[id] = ends;
+    runColors[id] = colors;
+  }
+
+  /**
+   * Applies a function to the color of every run, and returns the result as a new image. The
+   * function is called once per run rather than once per pixel. The new image shares the
+   * layout of the runs with this one, which is never modified.
+   *
+   * @param function                        the function from an old color to a new color, both
+   *                                        packed as 0xRRGGBB.
+   * @return                                a new image with the function applied.
+   */
+  public ImageRLE mapColors(IntUnaryOperator function) {
+    int[][] newColors = new int[runColors.length][];
+    for (int id = 0; id < runColors.length; id++) {
+      newColors[id] = new int[runColors[id].length];
+      for (int run = 0; run < runColors[id].length; run++) {
+        newColors[id][run] = function.applyAsInt(runColors[id][run]);
+      }
+    }
+    return new ImageRLE(width, height, rowIds, runEnds, newColors);
+  }
+
+  /**
+   * Gets and returns the number of runs stored, counting the runs of rows that are shared by
+   * several rows only once.
+   *
+   * @return                                The number of runs stored.
+   */
+  public long getRunCount() {
+    long runs = 0;
+    for (int[] ends : runEnds) {
+      runs += ends.length;
+    }
+    return runs;
+  }
+
+  /**
+   * This method writes and outputs an image, using the provided filename. Rows are expanded
+   * from their runs as the encoder asks for them.
+   *
+   * @param filename                        The name of the file to be outputted.
+   * @throws IllegalArgumentException       If the file cannot be written to the provided path.
+   */
+  public void write(String filename) throws IllegalArgumentException {
+    try {
+      ImageUtil.writeImage(this, filename);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("File cannot be written to provided path");
+    }
+  }
+
+  /**
+   * This method expands the image into a 3d array, and returns it to the calling object.
+   *
+   * @return                                The image's data.
+   */
+  public int[][][] getData() {
+    int[][][] data = new int[height][width][3];
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      getRow(i, row, 0);
+      for (int j = 0; j < width; j++) {
+        data[i][j][0] = (row[j] >> 16) & 0xFF;
+        data[i][j][1] = (row[j] >> 8) & 0xFF;
+        data[i][j][2] = row[j] & 0xFF;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * This method expands the image into packed pixels, and returns them to the calling object.
+   * A row that repeats the row above it is copied from it.
+   *
+   * @return                                The image's pixels.
+   */
+  public int[] getPixels() {
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < height; i++) {
+      if (i > 0 && rowIds[i] == rowIds[i - 1]) {
+        System.arraycopy(pixels, (i - 1) * width, pixels, i * width, width);
+      } else {
+        getRow(i, pixels, i * width);
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Gets and returns the color of a single pixel, by searching its row for the run that
+   * covers it.
+   *
+   * @param x                               The column of the pixel.
+   * @param y                               The row of the pixel.
+   * @return                                The color of the pixel.
+   */
+  public int getRGB(int x, int y) {
+    int id = rowIds[y];
+    int run = Arrays.binarySearch(runEnds[id], x + 1);
+    return runColors[id][run >= 0 ? run : -run - 1];
+  }
+
+  /**
+   * Expands a single row of the image into the given buffer, filling one run at a time.
+   *
+   * @param y                               The row to be read.
+   * @param buffer                          The array the row is written into.
+   * @param offset                          The position in the buffer where the first pixel
+   *                                        of the row is written.
+   */
+  public void getRow(int y, int[] buffer, int offset) {
+    int[] ends = runEnds[rowIds[y]];
+    int[] colors = runColors[rowIds[y]];
+    int start = 0;
+    for (int run = 0; run < ends.length; run++) {
+      Arrays.fill(buffer, offset + start, offset + ends[run], colors[run]);
+      start = ends[run];
+    }
+  }
+
+  /**
+   * Gets and returns an estimate of the memory the image's data takes up, which is 8 bytes per
+   * stored run, plus 4 bytes per row for the distinct row it uses.
+   *
+   * @return                                The estimated size of the image's data, in bytes.
+   */
+  public long getByteSize() {
+    return 8 * getRunCount() + 4L * height;
+  }
+
+  /**
+   * Gets and returns the width of the image.
+   *
+   * @return                               The width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets and returns the height of the image.
+   *
+   * @return                               The height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+}
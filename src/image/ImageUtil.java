@@ -1,18 +1,51 @@
 package image;
 
-import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.FileInputStream;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Vector;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 /**
  * This class contains utility methods to read an image from file and write to a file.
  */
 public class ImageUtil {
 
+  /**
+   * Read and decode an image file. The file is decoded exactly once, and is closed before
+   * this method returns.
+   *
+   * @param filename       the path of the file. Look at the ImageIO documentation to see which
+   *                       file formats are supported.
+   * @return               the decoded image.
+   * @throws IOException   if the file is not found, or its format is not supported.
+   */
+  public static BufferedImage readBufferedImage(String filename) throws IOException {
+    BufferedImage input = ImageIO.read(new File(filename));
+    if (input == null) {
+      throw new IOException("Image format not supported");
+    }
+    return input;
+  }
+
   /**
    * Read an image file and return the contents as an array.
    *
@@ -21,26 +54,186 @@ public class ImageUtil {
    * @return            the image as a 3D array of integer values.
    */
   public static int[][][] readImage(String filename) throws IOException {
-    BufferedImage input;
+    return getData(readBufferedImage(filename));
+  }
 
-    input = ImageIO.read(new FileInputStream(filename));
+  /**
+   * Read an image file and return the contents as a packed array, one int per pixel
+   * holding the red, green and blue channels as 0xRRGGBB, row by row.
+   *
+   * @param filename    the path of the file. Look at the ImageIO documentation to see which file
+   *                    formats are supported.
+   * @return            the image as a flat array of packed pixels.
+   */
+  public static int[] readPackedImage(String filename) throws IOException {
+    return getPackedPixels(readBufferedImage(filename));
+  }
 
-    int[][][] result = new int[input.getHeight()][input.getWidth()][3];
+  /**
+   * Converts a decoded image to a 3D array of integer values. The dimensions are row, col
+   * and channel respectively.
+   *
+   * @param input       the decoded image.
+   * @return            the image as a 3D array of integer values.
+   */
+  public static int[][][] getData(BufferedImage input) {
+    int width = input.getWidth();
+    int[] pixels = getPackedPixels(input);
+    int[][][] result = new int[input.getHeight()][width][3];
 
     for (int i = 0; i < input.getHeight(); i++) {
-      for (int j = 0; j < input.getWidth(); j++) {
-        int color = input.getRGB(j, i);
-        Color c = new Color(color);
-        result[i][j][0] = c.getRed();
-        result[i][j][1] = c.getGreen();
-        result[i][j][2] = c.getBlue();
+      for (int j = 0; j < width; j++) {
+        int color = pixels[i * width + j];
+        result[i][j][0] = (color >> 16) & 0xFF;
+        result[i][j][1] = (color >> 8) & 0xFF;
+        result[i][j][2] = color & 0xFF;
       }
     }
     return result;
   }
 
   /**
-   * Convenience function to get the width of an image.
+   * Converts a decoded image to a packed array, one int per pixel holding the red, green and
+   * blue channels as 0xRRGGBB, row by row. The pixel types ImageIO commonly decodes to are
+   * copied straight out of the image's data buffer. Any other type falls back to a single bulk
+   * getRGB call, which converts each pixel through the image's color model.
+   *
+   * @param input       the decoded image.
+   * @return            the image as a flat array of packed pixels.
+   */
+  public static int[] getPackedPixels(BufferedImage input) {
+    int width = input.getWidth();
+    int height = input.getHeight();
+    int[] result = new int[width * height];
+
+    switch (input.getType()) {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB:
+        if (hasPlainRaster(input, result.length)) {
+          int[] data = ((DataBufferInt) input.getRaster().getDataBuffer()).getData();
+          for (int i = 0; i < result.length; i++) {
+            result[i] = data[i] & 0xFFFFFF;
+          }
+          return result;
+        }
+        break;
+
+      case BufferedImage.TYPE_3BYTE_BGR:
+        if (hasPlainRaster(input, result.length * 3)) {
+          byte[] data = ((DataBufferByte) input.getRaster().getDataBuffer()).getData();
+          for (int i = 0, k = 0; i < result.length; i++, k += 3) {
+            result[i] = ((data[k + 2] & 0xFF) << 16) | ((data[k + 1] & 0xFF) << 8)
+                    | (data[k] & 0xFF);
+          }
+          return result;
+        }
+        break;
+
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        if (hasPlainRaster(input, result.length * 4)) {
+          byte[] data = ((DataBufferByte) input.getRaster().getDataBuffer()).getData();
+          for (int i = 0, k = 0; i < result.length; i++, k += 4) {
+            result[i] = ((data[k + 3] & 0xFF) << 16) | ((data[k + 2] & 0xFF) << 8)
+                    | (data[k + 1] & 0xFF);
+          }
+          return result;
+        }
+        break;
+
+      default:
+        break;
+    }
+
+    input.getRGB(0, 0, width, height, result, 0, width);
+    for (int i = 0; i < result.length; i++) {
+      result[i] &= 0xFFFFFF;
+    }
+    return result;
+  }
+
+  /**
+   * Determines if an image's raster is laid out as one tightly packed, single-bank array that
+   * starts at the image's first pixel, so that its data buffer can be read directly.
+   *
+   * @param input       the decoded image.
+   * @param length      the number of array elements a tightly packed raster would hold.
+   * @return            true if the data buffer can be read directly, false otherwise.
+   */
+  private static boolean hasPlainRaster(BufferedImage input, int length) {
+    WritableRaster raster = input.getRaster();
+    DataBuffer buffer = raster.getDataBuffer();
+    return raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+            && buffer.getNumBanks() == 1 && buffer.getOffset() == 0 && buffer.getSize() == length;
+  }
+
+  /**
+   * Wraps packed pixels in a BufferedImage of type TYPE_INT_RGB, without copying them. The
+   * returned image shares the given array, so it must not be modified while the image is used.
+   *
+   * @param pixels      the image data as a flat array of 0xRRGGBB ints, row by row.
+   * @param width       the width of the image.
+   * @param height      the height of the image.
+   * @return            a BufferedImage backed by the given pixels.
+   */
+  public static BufferedImage wrapPackedPixels(int[] pixels, int width, int height) {
+    DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+    WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length),
+            width, height, width, colorModel.getMasks(), null);
+    return new BufferedImage(colorModel, raster, false, null);
+  }
+
+  /**
+   * Converts an image to a BufferedImage of type TYPE_INT_RGB. Each row of the image is copied
+   * straight into the BufferedImage's data buffer.
+   *
+   * @param image       the image to be converted.
+   * @return            a new BufferedImage holding a copy of the image.
+   */
+  public static BufferedImage toBufferedImage(Image image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] data = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+    for (int i = 0; i < height; i++) {
+      image.getRow(i, data, i * width);
+    }
+    return output;
+  }
+
+  /**
+   * Reads the width and height of an image from the header of its file, without decoding
+   * the pixels.
+   *
+   * @param filename       the full path of the image file. Look at the ImageIO class to see
+   *                       which file formats are supported.
+   * @return               the width and height of the image.
+   * @throws IOException   if the file is not found, or its format is not supported.
+   */
+  public static Dimension readDimensions(String filename) throws IOException {
+    File file = new File(filename);
+    if (!file.canRead()) {
+      throw new IOException("Can't read input file");
+    }
+    try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+      if (input == null) {
+        throw new IOException("Can't read input file");
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        throw new IOException("Image format not supported");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Convenience function to get the width of an image. Only the header of the file is read.
    *
    * @param filename       the full path of the image file. Look at the ImageIO class to see
    *                       which file formats are supported.
@@ -49,15 +242,11 @@ public class ImageUtil {
    */
 
   public static int getWidth(String filename) throws IOException {
-    BufferedImage input;
-
-    input = ImageIO.read(new FileInputStream(filename));
-
-    return input.getWidth();
+    return readDimensions(filename).width;
   }
 
   /**
-   * Convenience function to get the height of an image.
+   * Convenience function to get the height of an image. Only the header of the file is read.
    *
    * @param filename         the full path of the image file. Look at the ImageIO class to see
    *                         which file formats are supported.
@@ -65,11 +254,7 @@ public class ImageUtil {
    * @throws IOException     if the file is not found.
    */
   public static int getHeight(String filename) throws IOException {
-    BufferedImage input;
-
-    input = ImageIO.read(new FileInputStream(filename));
-
-    return input.getHeight();
+    return readDimensions(filename).height;
   }
 
   /**
@@ -87,10 +272,7 @@ public class ImageUtil {
           filename)
           throws IOException {
 
-    BufferedImage output = new BufferedImage(
-            width,
-            height,
-            BufferedImage.TYPE_INT_RGB);
+    int[] pixels = new int[width * height];
 
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
@@ -101,11 +283,209 @@ public class ImageUtil {
         //color is stored in 1 integer, with the 4 bytes storing ARGB in that
         //order. Each of r,g,b are stored in 8 bits (hence between 0 and 255).
         // So we put them all in one integer by using bit-shifting << as below
-        int color = (r << 16) + (g << 8) + b;
-        output.setRGB(j, i, color);
+        pixels[i * width + j] = (r << 16) + (g << 8) + b;
       }
     }
+    writeImage(pixels, width, height, filename);
+  }
+
+  /**
+   * Write an image stored as packed pixels to a file in a given format. The pixels are handed
+   * to the encoder directly, without being copied.
+   *
+   * @param pixels         the image data as a flat array of 0xRRGGBB ints, row by row.
+   * @param width          the width of the image.
+   * @param height         the height of the image.
+   * @param filename       the full path of where the image must be stored. This should
+   *                       include the name and extension of the file.
+   * @throws IOException   if the file cannot be written to the provided path.
+   */
+  public static void writeImage(int[] pixels, int width, int height, String filename)
+          throws IOException {
+
+    writeBufferedImage(wrapPackedPixels(pixels, width, height), filename);
+  }
+
+  /**
+   * Write an image to a file in a given format, reading it one row at a time. The encoder is
+   * handed a view of the image that computes each strip of rows only when the encoder asks for
+   * it, so formats that are encoded row by row, such as PNG, never need the whole image in
+   * memory.
+   *
+   * @param image          the image to be written.
+   * @param filename       the full path of where the image must be stored. This should
+   *                       include the name and extension of the file.
+   * @throws IOException   if the file cannot be written to the provided path.
+   */
+  public static void writeImage(Image image, String filename) throws IOException {
+    writeBufferedImage(new RowRenderedImage(image), filename);
+  }
+
+  /**
+   * Encodes an image to a file, using the file's extension as the format. The file is closed
+   * before this method returns.
+   *
+   * @param output         the image to be encoded.
+   * @param filename       the full path of where the image must be stored. This should
+   *                       include the name and extension of the file.
+   * @throws IOException   if the file cannot be written to the provided path.
+   */
+  private static void writeBufferedImage(RenderedImage output, String filename)
+          throws IOException {
     String extension = filename.substring(filename.indexOf(".") + 1);
-    ImageIO.write(output, extension, new FileOutputStream(filename));
+    try (OutputStream out = new FileOutputStream(filename)) {
+      ImageIO.write(output, extension, out);
+    }
+  }
+
+  /**
+   * This class presents an image to an encoder as a single tile of 0xRRGGBB pixels, without
+   * holding its pixels. Whenever the encoder asks for a region, the rows of that region are
+   * read from the image into a new raster of just that size.
+   */
+  private static class RowRenderedImage implements RenderedImage {
+
+    private static final DirectColorModel COLOR_MODEL =
+            new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+    private final Image image;
+
+    /**
+     * Constructs a view of the given image.
+     *
+     * @param image       the image to be viewed.
+     */
+    private RowRenderedImage(Image image) {
+      this.image = image;
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+      return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+      return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+      return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+      return COLOR_MODEL;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+      return COLOR_MODEL.createCompatibleSampleModel(getWidth(), getHeight());
+    }
+
+    @Override
+    public int getWidth() {
+      return image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+      return image.getHeight();
+    }
+
+    @Override
+    public int getMinX() {
+      return 0;
+    }
+
+    @Override
+    public int getMinY() {
+      return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+      return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+      return 1;
+    }
+
+    @Override
+    public int getMinTileX() {
+      return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+      return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+      return getWidth();
+    }
+
+    @Override
+    public int getTileHeight() {
+      return getHeight();
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+      return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+      return 0;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+      return getData();
+    }
+
+    @Override
+    public Raster getData() {
+      return getData(new Rectangle(0, 0, getWidth(), getHeight()));
+    }
+
+    /**
+     * Reads a region of the image into a new raster located at the region. The region is
+     * clipped to the image first.
+     *
+     * @param rect        the region to be read.
+     * @return            a raster holding the pixels of the region.
+     */
+    @Override
+    public WritableRaster getData(Rectangle rect) {
+      Rectangle region = rect.intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+      int[] pixels = new int[region.width * region.height];
+      int[] row = region.width == getWidth() ? null : new int[getWidth()];
+      for (int i = 0; i < region.height; i++) {
+        if (row == null) {
+          image.getRow(region.y + i, pixels, i * region.width);
+        } else {
+          image.getRow(region.y + i, row, 0);
+          System.arraycopy(row, region.x, pixels, i * region.width, region.width);
+        }
+      }
+      return Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), region.width,
+              region.height, region.width, COLOR_MODEL.getMasks(),
+              new Point(region.x, region.y));
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+      if (raster == null) {
+        return getData(new Rectangle(0, 0, getWidth(), getHeight()));
+      }
+      raster.setRect(getData(raster.getBounds()));
+      return raster;
+    }
   }
 }
@@ -1,18 +1,41 @@
 package transformations;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import image.Image;
-import image.ImageRGB;
-import image.Pixel;
+import image.ImagePacked;
+import image.ImageRLE;
 
 /**
  * This class constructs a color transformation object with the ability to apply a given
  * transformation to an image. A color transformation is represented by a 2d array of 3x3
  * data.
+ *
+ * <p>Since every channel is an 8-bit value, each item of the matrix is turned into a table of
+ * its 256 possible products when the transformation is constructed. A pixel is then transformed
+ * with nine table lookups and six additions. The tables hold exactly the products the matrix
+ * multiplication would compute, so results are identical. Tables are cached by matrix, so every
+ * transformation with the same matrix shares them. The cache holds the tables of at most
+ * TABLE_CACHE_CAPACITY matrices, and drops the least recently used ones to make room, since a
+ * fused chain of transformations can have a matrix of its own for every chain.
  */
 public abstract class AbstractColorTransformation implements Transformation {
 
+  /**
+   * The most matrices whose tables are cached, each of which takes about 18 KB.
+   */
+  private static final int TABLE_CACHE_CAPACITY = 64;
+
+  private static final Map<List<Double>, double[][]> TABLE_CACHE =
+          new LinkedHashMap<>(16, 0.75f, true);
+
   private double[][] matrix;
+  private double[][] tables;
 
 
   /**
@@ -25,52 +48,171 @@ public abstract class AbstractColorTransformation implements Transformation {
    */
   public AbstractColorTransformation(double[][] matrix) {
     this.matrix = matrix;
+    this.tables = getTables(matrix);
+  }
+
+  /**
+   * Gets and returns the lookup tables of a matrix from the cache, building and caching them
+   * if they are not cached, and marks them as the most recently used. The least recently used
+   * tables are dropped until the cache is back within its capacity.
+   *
+   * @param matrix The 3x3 matrix.
+   * @return The 9 lookup tables.
+   */
+  private static double[][] getTables(double[][] matrix) {
+    List<Double> key = toKey(matrix);
+    synchronized (TABLE_CACHE) {
+      double[][] tables = TABLE_CACHE.get(key);
+      if (tables == null) {
+        tables = buildTables(matrix);
+        TABLE_CACHE.put(key, tables);
+        Iterator<double[][]> eldest = TABLE_CACHE.values().iterator();
+        while (TABLE_CACHE.size() > TABLE_CACHE_CAPACITY) {
+          eldest.next();
+          eldest.remove();
+        }
+      }
+      return tables;
+    }
+  }
+
+  /**
+   * Builds the key a matrix's tables are cached under, which is its 9 items in row order.
+   *
+   * @param matrix The 3x3 matrix.
+   * @return The key for the matrix.
+   */
+  private static List<Double> toKey(double[][] matrix) {
+    List<Double> key = new ArrayList<>(9);
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        key.add(matrix[row][col]);
+      }
+    }
+    return key;
   }
 
   /**
-   * Performs color calculations on a single image, and returns the modified image.
+   * Builds the lookup tables for a matrix. Table 3 * row + col holds the item at that row and
+   * column multiplied by every channel value from 0 to 255.
    *
-   * @param initialRGB The initial RGB values of the image.
-   * @return The modified image.
+   * @param matrix The 3x3 matrix.
+   * @return The 9 lookup tables.
    */
-  private Pixel calculateRGB(Pixel initialRGB) {
-    double resultR;
-    double resultG;
-    double resultB;
+  private static double[][] buildTables(double[][] matrix) {
+    double[][] tables = new double[9][256];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        for (int value = 0; value < 256; value++) {
+          tables[3 * row + col][value] = matrix[row][col] * value;
+        }
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Clamps a channel value to be within the range 0-255.
+   *
+   * @param value The channel value to be clamped.
+   * @return The clamped channel value.
+   */
+  private static int clamp(int value) {
+    return Math.min(255, Math.max(0, value));
+  }
+
+  /**
+   * Performs color calculations on a single packed pixel, and returns the modified pixel. Each
+   * channel is the sum of the table lookups for its row of the matrix, truncated and clamped to
+   * be within the range 0-255.
+   *
+   * @param color The initial color of the pixel, packed as 0xRRGGBB.
+   * @return The modified color, packed as 0xRRGGBB.
+   */
+  int transformPixel(int color) {
+    int r = (color >> 16) & 0xFF;
+    int g = (color >> 8) & 0xFF;
+    int b = color & 0xFF;
 
     //this is the calc from step 5 of assignment
-    resultR = matrix[0][0] * initialRGB.getR() + matrix[0][1] * initialRGB.getG()
-            + matrix[0][2] * initialRGB.getB();
-    resultG = matrix[1][0] * initialRGB.getR() + matrix[1][1] * initialRGB.getG()
-            + matrix[1][2] * initialRGB.getB();
-    resultB = matrix[2][0] * initialRGB.getR() + matrix[2][1] * initialRGB.getG()
-            + matrix[2][2] * initialRGB.getB();
-
-    return new Pixel((int) resultR, (int) resultG, (int) resultB);
+    int resultR = clamp((int) (tables[0][r] + tables[1][g] + tables[2][b]));
+    int resultG = clamp((int) (tables[3][r] + tables[4][g] + tables[5][b]));
+    int resultB = clamp((int) (tables[6][r] + tables[7][g] + tables[8][b]));
+
+    return (resultR << 16) | (resultG << 8) | resultB;
   }
 
+  /**
+   * Gets and returns a copy of the transformation's matrix.
+   *
+   * @return A copy of the 3x3 matrix.
+   */
+  double[][] getMatrix() {
+    double[][] copy = new double[3][3];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        copy[row][col] = matrix[row][col];
+      }
+    }
+    return copy;
+  }
 
   /**
    * Applies a transformation to every pixel in a given image.
    *
    * @param originalImage The original image to be modified.
+   * @param executor The executor that processes the rows of the image.
    * @return A copy of the original image, with the color transformation applied.
    */
-  public Image apply(Image originalImage) {
-    int[][][] newImageData = new int[originalImage.getHeight()][originalImage.getWidth()][3];
-    int[][][] data = originalImage.getData();
-
-    for (int i = 0; i < originalImage.getHeight(); i++) {
-      for (int j = 0; j < originalImage.getWidth(); j++) {
-        Pixel original = new Pixel(data[i][j][0], data[i][j][1], data[i][j][2]);
-        Pixel newPix = calculateRGB(original);
-        newImageData[i][j][0] = newPix.getR();
-        newImageData[i][j][1] = newPix.getG();
-        newImageData[i][j][2] = newPix.getB();
+  public Image apply(Image originalImage, RowExecutor executor) {
+    // A run-length encoded image is transformed one run at a time, and stays encoded.
+    if (originalImage instanceof ImageRLE) {
+      return ((ImageRLE) originalImage).mapColors(this::transformPixel);
+    }
+
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    int[] newPixels = new int[width * height];
+
+    // Each row is read straight into the new pixels and transformed in place.
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      for (int i = firstRow; i < lastRow; i++) {
+        originalImage.getRow(i, newPixels, i * width);
+        for (int j = i * width; j < (i + 1) * width; j++) {
+          newPixels[j] = transformPixel(newPixels[j]);
+        }
+        executor.finishRows(1);
       }
+    });
+    return new ImagePacked(width, height, newPixels);
+  }
 
+  /**
+   * Determines if another object is a color transformation of the same kind with the same
+   * matrix, so that it transforms every image the same way.
+   *
+   * @param other                 The object to compare with.
+   * @return                      True if the object transforms images the same way, false
+   *                              otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
     }
-    return new ImageRGB(newImageData);
+    return Arrays.deepEquals(matrix, ((AbstractColorTransformation) other).matrix);
   }
-}
 
+  /**
+   * Gets and returns a hash code built from the transformation's kind and matrix.
+   *
+   * @return                      The hash code of the transformation.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * getClass().getName().hashCode() + Arrays.deepHashCode(matrix);
+  }
+}
@@ -1,16 +1,35 @@
 package transformations;
 
+import java.util.Arrays;
+
 import image.Image;
-import image.ImageRGB;
-import image.Pixel;
+import image.ImagePacked;
 
 /**
  * This class constructs a filter object with the ability to apply a given filter
  * to an image. A filter is represented by a kernel, which is a 2d array.
+ *
+ * <p>The filter has always kept its sum as an int, truncating it after every term. When every
+ * term is non-negative and exact in a double (as every term of Blur is), truncating after every
+ * term is the same as truncating each term on its own, so the sum can be split by kernel rows.
+ * The filter is then applied as a horizontal pass, which sums each source row once for every
+ * distinct kernel row from tables of truncated terms, followed by a vertical pass, which adds
+ * those row sums. A separable kernel such as Blur is symmetric and repeats its rows, so it
+ * needs fewer row sums than it has rows. Other kernels, such as Sharpen, are applied with a
+ * full 2d pass.
+ * Both passes give exactly the same result as the filter always has.
  */
 public abstract class AbstractFilter implements Transformation {
 
+  /**
+   * The number of fractional bits a term may have to be exact. Every sum of such terms below
+   * 2^32 is exact in a double, which is far more than any filter of 8 bit channels can reach.
+   */
+  private static final int EXACT_FRACTION_BITS = 20;
+
   private double[][] kernel;
+  private int[] distinctRows;
+  private int[][][] termTables;
 
   /**
    * Constructs a filter with the given kernel matrix. A kernel is a 2d array that is used to
@@ -30,101 +49,312 @@ public abstract class AbstractFilter implements Transformation {
       throw new IllegalArgumentException("Kernel length must be an odd number");
     }
     this.kernel = kernel;
+    buildRowPasses();
   }
 
   /**
-   * This method creates a chunk from an image. A chunk is created by utilizing a chunk size,
-   * which is the desired amount of pixels around the target image to use.
-   * @param data                 The image's 3d array.
-   * @param x                    The x value of the target image.
-   * @param y                    The y value of the target image.
-   * @param chunkSize            The size of the chunk. A chunk will be represented
-   *                             by a chunksize x chunksize 2d array.
-   * @return                     A chunk, which is an exact copy of a chunk from the orignial
-   *                             image.
-   * @throws IllegalArgumentException     If the chunk size is not odd, or less than 1.
+   * Determines if the kernel can be applied as row passes, and if so builds the tables they
+   * use. Every item of the kernel times every channel value must be non-negative and have at
+   * most a few fractional bits, so that every running sum is exact and truncating it after a
+   * term is the same as truncating the term. Each distinct kernel row gets a table per item,
+   * holding the item times every channel value, truncated. Otherwise the tables are left null.
    */
-  private Image makeChunk(int[][][] data, int x, int y, int chunkSize)
-          throws IllegalArgumentException {
-
-    if (chunkSize % 2 == 0 || chunkSize < 1) {
-      throw new IllegalArgumentException("Chunk size must be an odd number, greater than 0");
+  private void buildRowPasses() {
+    double scale = Math.scalb(1.0, EXACT_FRACTION_BITS);
+    for (double[] kernelRow : kernel) {
+      if (kernelRow.length != kernel.length) {
+        return;
+      }
+      for (double item : kernelRow) {
+        for (int value = 0; value < 256; value++) {
+          double term = item * value;
+          if (!(term >= 0) || term * scale != Math.rint(term * scale)) {
+            return;
+          }
+        }
+      }
     }
 
-    int[][][] chunk = new int[chunkSize][chunkSize][3];
-    int spread = chunkSize / 2;
-
-    for (int i = 0; i < chunkSize; i++) {
-      for (int j = 0; j < chunkSize; j++) {
-        try {
-          chunk[i][j][0] = data[x + i - spread][y + j - spread][0];
-          chunk[i][j][1] = data[x + i - spread][y + j - spread][1];
-          chunk[i][j][2] = data[x + i - spread][y + j - spread][2];
-        } catch (IndexOutOfBoundsException e) {
-          chunk[i][j][0] = 0;
-          chunk[i][j][1] = 0;
-          chunk[i][j][2] = 0;
+    int[] rows = new int[kernel.length];
+    int[][][] tables = new int[kernel.length][][];
+    int distinct = 0;
+    for (int i = 0; i < kernel.length; i++) {
+      rows[i] = distinct;
+      for (int d = 0; d < i; d++) {
+        if (Arrays.equals(kernel[d], kernel[i])) {
+          rows[i] = rows[d];
+          break;
         }
       }
+      if (rows[i] == distinct) {
+        tables[distinct] = new int[kernel.length][256];
+        for (int j = 0; j < kernel.length; j++) {
+          for (int value = 0; value < 256; value++) {
+            tables[distinct][j][value] = (int) (kernel[i][j] * value);
+          }
+        }
+        distinct++;
+      }
     }
-    return new ImageRGB(chunk);
+    this.distinctRows = rows;
+    this.termTables = Arrays.copyOf(tables, distinct);
   }
 
   /**
-   * Calculates the RBG values for a specific image at the center of a given chunk,
-   * by multiplying each item in the chunk matrix by its corresponding item in the
-   * filter matrix for each of the 3 channels and then summing them. After the image
-   * value is calculated, any necessary clamping is handled by the image object when
-   * a new image is created.
+   * Determines if the filter is applied as horizontal and vertical row passes rather than one
+   * 2d pass.
    *
-   * @param chunk         an image (3D , representing a portion of the larger image.
-   * @return              The new image value, as an array of 3 ints, all between 0 and 255
-   *                      representing the three channels of the image.
+   * @return              True if the kernel can be split by rows, false otherwise.
    */
-  private Pixel calculatePixelValue(Image chunk) {
+  private boolean hasRowPasses() {
+    return termTables != null;
+  }
+
+  /**
+   * Calculates the RGB values for the pixel at the given row and column, by multiplying each
+   * pixel in the surrounding neighborhood by its corresponding item in the kernel for each of
+   * the 3 channels and then summing them. The neighborhood is read from a window holding the
+   * most recent kernel-height rows of the source image, where source row r is stored at
+   * slot r modulo the kernel height. Kernel positions that fall outside the image are skipped,
+   * which is the same as treating the pixels beyond the border as black. The sum is kept as an
+   * int and truncated after every term, exactly as the filter always has, so a 2d filter such
+   * as Sharpen gives the same result as before. The result is clamped to 0-255 and written
+   * into the output pixels.
+   *
+   * @param window        The window of source rows, as packed pixels.
+   * @param width         The width of the image.
+   * @param height        The height of the image.
+   * @param row           The row of the target pixel.
+   * @param col           The column of the target pixel.
+   * @param output        The packed pixels the filtered pixel is written to.
+   */
+  private void calculatePixelValue(int[] window, int width, int height, int row, int col,
+                                   int[] output) {
+    int spread = kernel.length / 2;
+
+    // Clip the kernel window to the image once, instead of checking every position.
+    int firstI = Math.max(0, spread - row);
+    int lastI = Math.min(kernel.length, height - row + spread);
+    int firstJ = Math.max(0, spread - col);
+    int lastJ = Math.min(kernel.length, width - col + spread);
+
     int resultR = 0;
     int resultG = 0;
     int resultB = 0;
 
-    //Gets the data from the chunk image. Then calculates each channel of the image.
-    int[][][] data = chunk.getData();
+    for (int i = firstI; i < lastI; i++) {
+      double[] kernelRow = kernel[i];
+      int rowStart = ((row + i - spread) % kernel.length) * width + col - spread;
+      for (int j = firstJ; j < lastJ; j++) {
+        int color = window[rowStart + j];
+        resultR += kernelRow[j] * ((color >> 16) & 0xFF);
+        resultG += kernelRow[j] * ((color >> 8) & 0xFF);
+        resultB += kernelRow[j] * (color & 0xFF);
+      }
+    }
+    output[row * width + col] = (clamp(resultR) << 16) | (clamp(resultG) << 8) | clamp(resultB);
+  }
 
-    for (int i = 0; i < kernel.length; i++) {
-      for (int j = 0; j < kernel.length; j++) {
-        resultR += kernel[i][j] * data[i][j][0];
-        resultG += kernel[i][j] * data[i][j][1];
-        resultB += kernel[i][j] * data[i][j][2];
+  /**
+   * Performs the horizontal pass on a single source row. For each distinct kernel row, each
+   * channel of each pixel is replaced by the sum of the truncated terms of its horizontal
+   * neighbors, with positions outside the image skipped. The results are written as 3 ints
+   * per pixel for the first distinct row, followed by the same for each other distinct row.
+   *
+   * @param row           The source row, as packed pixels.
+   * @param width         The width of the image.
+   * @param output        The array the filtered row is written to.
+   * @param offset        The position in the output where the first pixel is written.
+   */
+  private void filterRowHorizontally(int[] row, int width, int[] output, int offset) {
+    int spread = kernel.length / 2;
+    for (int[][] tables : termTables) {
+      for (int col = 0; col < width; col++) {
+        int firstJ = Math.max(0, spread - col);
+        int lastJ = Math.min(kernel.length, width - col + spread);
+
+        int resultR = 0;
+        int resultG = 0;
+        int resultB = 0;
+        for (int j = firstJ; j < lastJ; j++) {
+          int color = row[col + j - spread];
+          int[] table = tables[j];
+          resultR += table[(color >> 16) & 0xFF];
+          resultG += table[(color >> 8) & 0xFF];
+          resultB += table[color & 0xFF];
+        }
+        output[offset + 3 * col] = resultR;
+        output[offset + 3 * col + 1] = resultG;
+        output[offset + 3 * col + 2] = resultB;
+      }
+      offset += 3 * width;
+    }
+  }
+
+  /**
+   * Performs the vertical pass for a single output row. Each channel is the sum of the row
+   * sums of the source rows above and below, each taken for the kernel row it lines up with,
+   * with rows outside the image skipped. The result is clamped to 0-255 and written into the
+   * output pixels.
+   *
+   * @param window        The horizontally filtered rows, where source row r is stored at slot
+   *                      r modulo the kernel height.
+   * @param width         The width of the image.
+   * @param height        The height of the image.
+   * @param row           The output row.
+   * @param output        The packed pixels the filtered row is written to.
+   */
+  private void filterRowVertically(int[] window, int width, int height, int row,
+                                   int[] output) {
+    int spread = kernel.length / 2;
+    int firstI = Math.max(0, spread - row);
+    int lastI = Math.min(kernel.length, height - row + spread);
+    int slotSize = termTables.length * 3 * width;
+
+    for (int col = 0; col < width; col++) {
+      int resultR = 0;
+      int resultG = 0;
+      int resultB = 0;
+      for (int i = firstI; i < lastI; i++) {
+        int index = ((row + i - spread) % kernel.length) * slotSize
+                + distinctRows[i] * 3 * width + 3 * col;
+        resultR += window[index];
+        resultG += window[index + 1];
+        resultB += window[index + 2];
+      }
+      output[row * width + col] = (clamp(resultR) << 16) | (clamp(resultG) << 8)
+              | clamp(resultB);
+    }
+  }
+
+  /**
+   * Clamps a channel value to be within the range 0-255.
+   *
+   * @param value         The channel value to be clamped.
+   * @return              The clamped channel value.
+   */
+  private static int clamp(int value) {
+    return Math.min(255, Math.max(0, value));
+  }
+
+  /**
+   * Applies the full 2d kernel to the given rows of the image. A window of kernel-height
+   * source rows is filled with the rows around the first output row, then slid down one row
+   * at a time, so the source image is read in place and never copied as a whole.
+   *
+   * @param originalImage        The original image that is being filtered.
+   * @param firstRow             The first output row to be filtered.
+   * @param lastRow              The row after the last output row to be filtered.
+   * @param output               The packed pixels the filtered rows are written to.
+   * @param executor             The executor each finished row is reported to.
+   */
+  private void applyKernel(Image originalImage, int firstRow, int lastRow, int[] output,
+                           RowExecutor executor) {
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    int spread = kernel.length / 2;
+    int[] window = new int[kernel.length * width];
+
+    for (int i = Math.max(0, firstRow - spread); i < Math.min(firstRow + spread, height); i++) {
+      originalImage.getRow(i, window, (i % kernel.length) * width);
+    }
+    for (int i = firstRow; i < lastRow; i++) {
+      if (i + spread < height) {
+        originalImage.getRow(i + spread, window, ((i + spread) % kernel.length) * width);
+      }
+      for (int j = 0; j < width; j++) {
+        calculatePixelValue(window, width, height, i, j, output);
+      }
+      executor.finishRows(1);
+    }
+  }
+
+  /**
+   * Applies the kernel to the given rows of the image as row passes. Each source row is read
+   * once and filtered horizontally into a window of kernel-height rows, and each output row is
+   * then filtered vertically from that window.
+   *
+   * @param originalImage        The original image that is being filtered.
+   * @param firstRow             The first output row to be filtered.
+   * @param lastRow              The row after the last output row to be filtered.
+   * @param output               The packed pixels the filtered rows are written to.
+   * @param executor             The executor each finished row is reported to.
+   */
+  private void applyRowPasses(Image originalImage, int firstRow, int lastRow, int[] output,
+                              RowExecutor executor) {
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    int size = kernel.length;
+    int spread = size / 2;
+    int slotSize = termTables.length * 3 * width;
+    int[] row = new int[width];
+    int[] window = new int[size * slotSize];
+
+    for (int i = Math.max(0, firstRow - spread); i < Math.min(firstRow + spread, height); i++) {
+      originalImage.getRow(i, row, 0);
+      filterRowHorizontally(row, width, window, (i % size) * slotSize);
+    }
+    for (int i = firstRow; i < lastRow; i++) {
+      if (i + spread < height) {
+        originalImage.getRow(i + spread, row, 0);
+        filterRowHorizontally(row, width, window, ((i + spread) % size) * slotSize);
       }
+      filterRowVertically(window, width, height, i, output);
+      executor.finishRows(1);
     }
-    int[] resultArray = {(int) resultR, (int) resultG, (int) resultB};
-    return new Pixel(resultR, resultG, resultB);//resultArray;
   }
 
   /**
    * This method takes the given image, and compiles a new image which is a copy of the original
-   * image, but with the filter applied.
+   * image, but with the filter applied. Each band of rows fills its own window from the source
+   * image, so bands can be filtered independently.
    *
    * @param originalImage        The original image that is being filtered.
+   * @param executor             The executor that processes the rows of the image.
    * @return                     A new image, which is a copy of the original image,
    *                             with the filter applied.
    */
-  public Image apply(Image originalImage) {
-    int[][][] originalData = originalImage.getData();
-    int[][][] newImageData = new int[originalImage.getHeight()][originalImage.getWidth()][3];
-
-
-    for (int i = 0; i < originalImage.getHeight(); i++) {
-      for (int j = 0; j < originalImage.getWidth(); j++) {
-        Image chunk = makeChunk(originalData, i, j, kernel.length);
-        Pixel pix = calculatePixelValue(chunk);
-        newImageData[i][j][0] = pix.getR();
-        newImageData[i][j][1] = pix.getG();
-        newImageData[i][j][2] = pix.getB();
+  public Image apply(Image originalImage, RowExecutor executor) {
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    int[] newPixels = new int[width * height];
+
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      if (hasRowPasses()) {
+        applyRowPasses(originalImage, firstRow, lastRow, newPixels, executor);
+      } else {
+        applyKernel(originalImage, firstRow, lastRow, newPixels, executor);
       }
+    });
+    return new ImagePacked(width, height, newPixels);
+  }
 
+  /**
+   * Determines if another object is a filter of the same kind with the same kernel, so that it
+   * filters every image the same way.
+   *
+   * @param other                The object to compare with.
+   * @return                     True if the object filters images the same way, false
+   *                             otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
     }
-    return new ImageRGB(newImageData);
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    return Arrays.deepEquals(kernel, ((AbstractFilter) other).kernel);
   }
 
-
-}
\ No newline at end of file
+  /**
+   * Gets and returns a hash code built from the filter's kind and kernel.
+   *
+   * @return                     The hash code of the filter.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * getClass().getName().hashCode() + Arrays.deepHashCode(kernel);
+  }
+}
@@ -0,0 +1,122 @@
+package transformations;
+
+import java.util.Arrays;
+
+import image.Image;
+import image.ImagePacked;
+
+/**
+ * This class constructs a threshold dither object, which turns an image into black and white
+ * pixels by comparing each pixel's greyscale value against a threshold from a square matrix
+ * tiled over the image. Unlike error diffusion, every pixel is dithered on its own, so any band
+ * of rows can be dithered independently and in parallel.
+ *
+ * <p>A threshold matrix is built from a rank matrix, which orders the positions of the matrix
+ * from 0 to size * size - 1. Subclasses build their rank matrix once and share it.
+ */
+public abstract class AbstractThresholdDither implements Transformation {
+
+  private final int[] thresholds;
+  private final int size;
+
+  /**
+   * Constructs a threshold dither with the given threshold matrix.
+   *
+   * @param thresholds                      The thresholds of the matrix, row by row. A pixel
+   *                                        is white if its greyscale value is at least its
+   *                                        threshold.
+   * @param size                            The width and height of the matrix.
+   * @throws IllegalArgumentException       if the number of thresholds is not size * size.
+   */
+  protected AbstractThresholdDither(int[] thresholds, int size)
+          throws IllegalArgumentException {
+    if (size < 1 || thresholds.length != size * size) {
+      throw new IllegalArgumentException("Threshold matrix must be a square");
+    }
+    this.thresholds = thresholds;
+    this.size = size;
+  }
+
+  /**
+   * Converts a rank matrix to a threshold matrix. Rank r of n positions becomes the threshold
+   * 1 + (r + 0.5) * 254 / n, rounded down, so the thresholds are spread evenly over 1-254. Black
+   * always stays black, and white, which the greyscale weights round down to 254, always stays
+   * white.
+   *
+   * @param ranks         The rank of each position of the matrix, from 0 to n - 1.
+   * @return              The threshold of each position of the matrix.
+   */
+  static int[] toThresholds(int[] ranks) {
+    int[] thresholds = new int[ranks.length];
+    for (int i = 0; i < ranks.length; i++) {
+      thresholds[i] = 1 + (int) ((2L * ranks[i] + 1) * 254 / (2L * ranks.length));
+    }
+    return thresholds;
+  }
+
+  /**
+   * This method takes the given image, and compiles a new image which is a copy of the original
+   * image, but with the dither applied. Each pixel is converted to greyscale with the same
+   * weights as Greyscale, and compared against the threshold at its position in the tiled
+   * matrix without branching.
+   *
+   * @param originalImage        The original image that is being dithered.
+   * @param executor             The executor that processes the rows of the image.
+   * @return                     A new image, which is a copy of the original image,
+   *                             with the dither applied.
+   */
+  public Image apply(Image originalImage, RowExecutor executor) {
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    int[] newPixels = new int[width * height];
+
+    // Each row is read straight into the new pixels and dithered in place.
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      for (int i = firstRow; i < lastRow; i++) {
+        originalImage.getRow(i, newPixels, i * width);
+        int rowStart = (i % size) * size;
+        for (int j = i * width, col = 0; j < (i + 1) * width; j++) {
+          int color = newPixels[j];
+          int grey = (int) (0.2126 * ((color >> 16) & 0xFF) + 0.7152 * ((color >> 8) & 0xFF)
+                  + 0.0722 * (color & 0xFF));
+          newPixels[j] = ((thresholds[rowStart + col] - grey - 1) >> 31) & 0xFFFFFF;
+          if (++col == size) {
+            col = 0;
+          }
+        }
+        executor.finishRows(1);
+      }
+    });
+    return new ImagePacked(width, height, newPixels);
+  }
+
+  /**
+   * Determines if another object is a threshold dither of the same kind with the same
+   * thresholds, so that it dithers every image the same way.
+   *
+   * @param other                The object to compare with.
+   * @return                     True if the object dithers images the same way, false
+   *                             otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    AbstractThresholdDither dither = (AbstractThresholdDither) other;
+    return size == dither.size && Arrays.equals(thresholds, dither.thresholds);
+  }
+
+  /**
+   * Gets and returns a hash code built from the dither's kind and thresholds.
+   *
+   * @return                     The hash code of the dither.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * getClass().getName().hashCode() + Arrays.hashCode(thresholds);
+  }
+}
@@ -0,0 +1,140 @@
+package transformations;
+
+import java.util.Random;
+
+/**
+ * This class represents a blue noise dither transformation object, which dithers an image to
+ * black and white with a 64x64 blue noise threshold mask. Blue noise has no low frequency
+ * structure, so the result looks like a fine, even grain instead of the regular pattern of an
+ * ordered dither.
+ *
+ * <p>The mask is generated with the void-and-cluster method, the first time a blue noise dither
+ * is constructed, and shared from then on. Its random start is seeded with a fixed value, so
+ * the mask is the same on every run.
+ */
+public class BlueNoiseDither extends AbstractThresholdDither {
+
+  private static final int SIZE = 64;
+  private static final double SIGMA = 1.5;
+  private static final long MASK_SEED = 0x5EED;
+
+  /**
+   * Constructs a blue noise dither, and takes no parameters.
+   */
+  public BlueNoiseDither() {
+    super(MaskHolder.THRESHOLDS, SIZE);
+  }
+
+  /**
+   * This class holds the shared threshold mask, which is generated when the class is first
+   * used.
+   */
+  private static class MaskHolder {
+    private static final int[] THRESHOLDS = toThresholds(buildRanks());
+  }
+
+  /**
+   * Builds the blue noise rank matrix with the void-and-cluster method. Points are measured by
+   * their energy: the sum of a gaussian of their wrapped-around distance to every set point.
+   * The tightest cluster is the set point with the most energy, and the largest void is the
+   * empty point with the least. Ties go to the first point in row order.
+   *
+   * <p>A tenth of the points are first set at random, then the tightest cluster is moved to the
+   * largest void until that no longer changes anything. The set points are ranked by removing
+   * tightest clusters one at a time from a copy, with the last removed ranked 0. The remaining
+   * points are ranked by filling largest voids one at a time.
+   *
+   * @return              The rank of each position of the mask, row by row.
+   */
+  private static int[] buildRanks() {
+    int count = SIZE * SIZE;
+    double[] gaussian = new double[count];
+    for (int dy = 0; dy < SIZE; dy++) {
+      for (int dx = 0; dx < SIZE; dx++) {
+        int wrappedX = Math.min(dx, SIZE - dx);
+        int wrappedY = Math.min(dy, SIZE - dy);
+        gaussian[dy * SIZE + dx] =
+                Math.exp(-(wrappedX * wrappedX + wrappedY * wrappedY) / (2 * SIGMA * SIGMA));
+      }
+    }
+
+    boolean[] pattern = new boolean[count];
+    double[] energy = new double[count];
+    Random random = new Random(MASK_SEED);
+    int ones = count / 10;
+    for (int placed = 0; placed < ones; ) {
+      int point = random.nextInt(count);
+      if (!pattern[point]) {
+        setPoint(pattern, energy, gaussian, point, true);
+        placed++;
+      }
+    }
+    for (int moves = 0; moves < count; moves++) {
+      int cluster = findExtreme(pattern, energy, true);
+      setPoint(pattern, energy, gaussian, cluster, false);
+      int voidPoint = findExtreme(pattern, energy, false);
+      setPoint(pattern, energy, gaussian, voidPoint, true);
+      if (voidPoint == cluster) {
+        break;
+      }
+    }
+
+    int[] ranks = new int[count];
+    boolean[] removing = pattern.clone();
+    double[] removingEnergy = energy.clone();
+    for (int rank = ones - 1; rank >= 0; rank--) {
+      int cluster = findExtreme(removing, removingEnergy, true);
+      setPoint(removing, removingEnergy, gaussian, cluster, false);
+      ranks[cluster] = rank;
+    }
+    for (int rank = ones; rank < count; rank++) {
+      int voidPoint = findExtreme(pattern, energy, false);
+      setPoint(pattern, energy, gaussian, voidPoint, true);
+      ranks[voidPoint] = rank;
+    }
+    return ranks;
+  }
+
+  /**
+   * Sets or clears a point, and updates the energy of every point to match.
+   *
+   * @param pattern       Which points are set.
+   * @param energy        The energy of every point.
+   * @param gaussian      The gaussian of every wrapped-around offset, row by row.
+   * @param point         The point to set or clear.
+   * @param set           True to set the point, false to clear it.
+   */
+  private static void setPoint(boolean[] pattern, double[] energy, double[] gaussian,
+                               int point, boolean set) {
+    pattern[point] = set;
+    double sign = set ? 1 : -1;
+    int pointX = point % SIZE;
+    int pointY = point / SIZE;
+    for (int y = 0; y < SIZE; y++) {
+      int rowStart = ((y - pointY + SIZE) % SIZE) * SIZE;
+      for (int x = 0; x < SIZE; x++) {
+        energy[y * SIZE + x] += sign * gaussian[rowStart + (x - pointX + SIZE) % SIZE];
+      }
+    }
+  }
+
+  /**
+   * Finds the tightest cluster or the largest void.
+   *
+   * @param pattern       Which points are set.
+   * @param energy        The energy of every point.
+   * @param cluster       True to find the set point with the most energy, false to find the
+   *                      empty point with the least.
+   * @return              The point found.
+   */
+  private static int findExtreme(boolean[] pattern, double[] energy, boolean cluster) {
+    int best = -1;
+    for (int point = 0; point < pattern.length; point++) {
+      if (pattern[point] == cluster && (best == -1
+              || (cluster ? energy[point] > energy[best] : energy[point] < energy[best]))) {
+        best = point;
+      }
+    }
+    return best;
+  }
+}
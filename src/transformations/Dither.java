@@ -1,8 +1,10 @@
 package transformations;
 
 import image.Image;
-import image.ImageRGB;
-import image.Pixel;
+import image.ImagePacked;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * This class represents a Dither transformation object. A dither object contains one public method,
@@ -11,6 +13,8 @@ import image.Pixel;
  */
 public class Dither implements Transformation {
 
+  private static final int PROGRESS_INTERVAL = 64;
+
   /**
    * Constructs a Dither object, and takes no parameters.
    */
@@ -22,82 +26,184 @@ public class Dither implements Transformation {
    * This method takes the given image, and compiles a new image which is a copy of the original
    * image, but with the dither transformation applied.
    *
+   * <p>The image is dithered with Floyd-Steinberg error diffusion in a single pass. Only two rows
+   * of greyscale values are kept: the row being dithered, and the row below it, which receives
+   * its share of the error. Each row is converted to greyscale as it is read. Both rows have an
+   * extra value at each end, so error that falls off the left or right edge of the image lands
+   * there and is ignored, without any bounds checks.
+   *
+   * <p>If the executor would split the image into more than one band, the image is dithered as
+   * a wavefront instead, with several rows in progress at once. See applyWavefront.
+   *
    * @param originalImage The original image that is being filtered.
+   * @param executor The executor that processes the rows of the image.
    * @return A new image, which is a copy of the original image, with the dither applied.
    */
-  public Image apply(Image originalImage) {
-    // Convert the original image to greyscale image
-    AbstractColorTransformation greyscale = new Greyscale();
-    Image originalGrey = greyscale.apply(originalImage);
+  public Image apply(Image originalImage, RowExecutor executor) {
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    if (executor.getBandCount(width, height) > 1) {
+      return applyWavefront(originalImage, executor);
+    }
+    executor.startRows(height);
+    int[] newPixels = new int[width * height];
+    int[] row = new int[width];
+    int[] current = new int[width + 2];
+    int[] below = new int[width + 2];
+
+    originalImage.getRow(0, row, 0);
+    toGreyscale(row, current, 1);
+    for (int i = 0; i < height; i++) {
+      if (i + 1 < height) {
+        originalImage.getRow(i + 1, row, 0);
+        toGreyscale(row, below, 1);
+      }
+      ditherRow(current, below, newPixels, i * width);
 
-    // Get data of greyscale image. Since data is a copy, I'm also using data as the 3d array
-    // to be dithered, and returned.
-    int[][][] data = originalGrey.getData();
+      int[] swap = current;
+      current = below;
+      below = swap;
+      executor.finishRows(1);
+    }
+    return new ImagePacked(width, height, newPixels);
+  }
 
-    // Loop through grey image
-    for (int i = 0; i < originalGrey.getHeight(); i++) {
-      for (int j = 0; j < originalGrey.getWidth(); j++) {
+  /**
+   * Dithers the image with several rows in progress at once, giving exactly the same result as
+   * dithering it in scan order. Every value a pixel receives error from is final once the row
+   * above has dithered 3 pixels past it, and from then on the two rows never touch the same
+   * value. So each thread takes the next row that nobody has started, and dithers it as far as
+   * the row above allows, waiting whenever it catches up. Each row publishes how far it has got
+   * every PROGRESS_INTERVAL pixels.
+   *
+   * <p>The greyscale values are converted up front, in parallel, into the array that becomes
+   * the new image, and each value is replaced by its dithered pixel once it is final.
+   *
+   * @param originalImage The original image that is being filtered.
+   * @param executor The executor that provides the threads the rows are dithered on.
+   * @return A new image, which is a copy of the original image, with the dither applied.
+   */
+  private Image applyWavefront(Image originalImage, RowExecutor executor) {
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    int[] values = new int[width * height];
+
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      int[] row = new int[width];
+      for (int i = firstRow; i < lastRow; i++) {
+        originalImage.getRow(i, row, 0);
+        toGreyscale(row, values, i * width);
+        executor.finishRows(1);
+      }
+    });
+
+    // A row is only taken once every row above it has been taken, by a thread that is already
+    // dithering it, so the row a thread waits for is always making progress.
+    AtomicInteger nextRow = new AtomicInteger();
+    AtomicIntegerArray progress = new AtomicIntegerArray(height);
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      for (int i = nextRow.getAndIncrement(); i < height; i = nextRow.getAndIncrement()) {
+        ditherRowAfterAbove(values, width, height, i, progress, executor);
+        executor.finishRows(1);
+      }
+    });
+    return new ImagePacked(width, height, values);
+  }
 
+  /**
+   * Dithers a single row of the full greyscale image, in step with the row above it. Pixel x
+   * is dithered once the row above has dithered every pixel up to and including x + 2, or the
+   * whole row if that is fewer. The executor's monitor is checked while waiting, so that if the
+   * thread dithering the row above is cancelled, this one stops instead of waiting forever.
+   *
+   * @param values The greyscale values of the image, which are replaced by the dithered pixels.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param row The row to dither.
+   * @param progress The number of pixels each row has dithered so far.
+   * @param executor The executor whose monitor is checked while waiting for the row above.
+   */
+  private static void ditherRowAfterAbove(int[] values, int width, int height, int row,
+                                          AtomicIntegerArray progress, RowExecutor executor) {
+    int x = 0;
+    while (x < width) {
+      int limit = width;
+      if (row > 0) {
+        int above = progress.get(row - 1);
+        while (above < width && above < x + 3) {
+          executor.checkCancelled();
+          Thread.yield();
+          above = progress.get(row - 1);
+        }
+        limit = above == width ? width : above - 2;
+      }
+      limit = Math.min(limit, x + PROGRESS_INTERVAL);
 
-        int oldColor = data[i][j][0];
+      for (; x < limit; x++) {
+        int index = row * width + x;
+        int oldColor = values[index];
         int newColor = determineNewColor(oldColor);
         int error = oldColor - newColor;
 
-        try {
-          // Create pixels for each of the 4 surrounding pixels. so that we can use the image
-          // constructor's clamping.
-
-          // image.Pixel at (r,c+1)
-          Pixel pixel1 = new Pixel((data[i + 1][j][0] += (int) (error * (7. / 16)))
-                  , (data[i + 1][j][1] += (int) (error * (7. / 16)))
-                  , (data[i + 1][j][2] += (int) (error * (7. / 16))));
-
-          // image.Pixel at (r+1,c-1)
-          Pixel pixel2 = new Pixel((data[i - 1][j + 1][0] += (int) (error * (7. / 16))),
-                  (data[i - 1][j + 1][1] += (int) (error * (7. / 16))),
-                  (data[i - 1][j + 1][2] += (int) (error * (7. / 16))));
-
-          // image.Pixel at (r+1,c)
-          Pixel pixel3 = new Pixel((data[i][j + 1][0] += (int) (error * (5. / 16))),
-                  (data[i][j + 1][1] += (int) (error * (5. / 16))),
-                  (data[i][j + 1][2] += (int) (error * (5. / 16))));
-
-          // image.Pixel at (r+1,c+1)
-          Pixel pixel4 = new Pixel((data[i + 1][j + 1][0] += (int) (error * (1. / 16))),
-                  (data[i + 1][j + 1][1] += (int) (error * (1. / 16))),
-                  (data[i + 1][j + 1][2] += (int) (error * (1. / 16))));
-
-
-          // Modify the color of the target image at [i][j]
-          data[i][j][0] = newColor;
-          data[i][j][1] = newColor;
-          data[i][j][2] = newColor;
-
-          // Modify the image color for (r,c+1)
-          data[i + 1][j][0] = pixel1.getR();
-          data[i + 1][j][1] = pixel1.getG();
-          data[i + 1][j][2] = pixel1.getB();
-
-          // Modify image for (r+1, c-1)
-          data[i - 1][j + 1][0] = pixel2.getR();
-          data[i - 1][j + 1][1] = pixel2.getG();
-          data[i - 1][j + 1][2] = pixel2.getB();
-
-          // Modify image for (r+1, c)
-          data[i][j + 1][0] = pixel3.getR();
-          data[i][j + 1][1] = pixel3.getG();
-          data[i][j + 1][2] = pixel3.getB();
-
-          // Modify image for (r+1, c+1)
-          data[i + 1][j + 1][0] = pixel4.getR();
-          data[i + 1][j + 1][1] = pixel4.getG();
-          data[i + 1][j + 1][2] = pixel4.getB();
-        } catch (ArrayIndexOutOfBoundsException e) {
-          continue;
+        if (x + 1 < width) {
+          values[index + 1] = clamp(values[index + 1] + error * 7 / 16);
         }
+        if (row + 1 < height) {
+          int below = index + width;
+          if (x > 0) {
+            values[below - 1] = clamp(values[below - 1] + error * 3 / 16);
+          }
+          values[below] = clamp(values[below] + error * 5 / 16);
+          if (x + 1 < width) {
+            values[below + 1] = clamp(values[below + 1] + error / 16);
+          }
+        }
+        values[index] = newColor * 0x010101;
       }
+      progress.set(row, x);
+    }
+  }
+
+  /**
+   * Converts a row of packed pixels to greyscale values, using the same weights as Greyscale.
+   *
+   * @param row The row of packed pixels.
+   * @param values The array the greyscale values are written to.
+   * @param offset The position in the values where the first greyscale value is written.
+   */
+  private static void toGreyscale(int[] row, int[] values, int offset) {
+    for (int j = 0; j < row.length; j++) {
+      int color = row[j];
+      values[offset + j] = (int) (0.2126 * ((color >> 16) & 0xFF) + 0.7152 * ((color >> 8) & 0xFF)
+              + 0.0722 * (color & 0xFF));
+    }
+  }
+
+  /**
+   * Dithers a single row. Each value is set to black or white, and the difference is spread
+   * over the neighbors that have not been dithered yet: 7/16 to the right, and 3/16, 5/16 and
+   * 1/16 to the row below, left to right. Each neighbor is clamped to 0-255 as its share is
+   * added.
+   *
+   * @param current The greyscale values of the row, with an extra value at each end.
+   * @param below The greyscale values of the row below, with an extra value at each end.
+   * @param output The packed pixels the dithered row is written to.
+   * @param offset The position in the output where the first pixel of the row is written.
+   */
+  private static void ditherRow(int[] current, int[] below, int[] output, int offset) {
+    int width = current.length - 2;
+    for (int j = 1; j <= width; j++) {
+      int oldColor = current[j];
+      int newColor = determineNewColor(oldColor);
+      int error = oldColor - newColor;
+
+      current[j + 1] = clamp(current[j + 1] + error * 7 / 16);
+      below[j - 1] = clamp(below[j - 1] + error * 3 / 16);
+      below[j] = clamp(below[j] + error * 5 / 16);
+      below[j + 1] = clamp(below[j + 1] + error / 16);
+
+      output[offset + j - 1] = newColor * 0x010101;
     }
-    return new ImageRGB(data);
   }
 
   /**
@@ -107,12 +213,41 @@ public class Dither implements Transformation {
    * @param num The color being compared.
    * @return 0 or 255, depending on which number num is closer to.
    */
-  private int determineNewColor(int num) {
-    if (Math.abs(255 - num) < Math.abs(0 - num)) {
-      return 255;
-    } else {
-      return 0;
-    }
+  private static int determineNewColor(int num) {
+    return ((127 - num) >> 31) & 255;
   }
 
-}
\ No newline at end of file
+  /**
+   * Clamps a value to be within the range 0-255, without branching. Negative values are
+   * masked to 0, and values above 255 have all their low bits set before being masked to 255.
+   *
+   * @param value The value to be clamped.
+   * @return The clamped value.
+   */
+  static int clamp(int value) {
+    value &= ~(value >> 31);
+    return (value | ((255 - value) >> 31)) & 255;
+  }
+
+  /**
+   * Determines if another object is also a Dither. A Dither has no parameters, so every Dither
+   * dithers images the same way.
+   *
+   * @param other The object to compare with.
+   * @return True if the object is a Dither, false otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    return other != null && getClass() == other.getClass();
+  }
+
+  /**
+   * Gets and returns a hash code, which is the same for every Dither.
+   *
+   * @return The hash code of the dither.
+   */
+  @Override
+  public int hashCode() {
+    return getClass().getName().hashCode();
+  }
+}
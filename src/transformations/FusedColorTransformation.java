@@ -0,0 +1,149 @@
+package transformations;
+
+import java.util.Arrays;
+import java.util.List;
+
+import image.Image;
+import image.ImagePacked;
+import image.ImageRLE;
+
+/**
+ * This class represents a chain of color transformations that is applied to an image in a
+ * single pass. Each pixel is read once, run through every transformation of the chain, and
+ * written once, instead of every transformation building and walking a whole image of its own.
+ *
+ * <p>By default each pixel is truncated and clamped to 0-255 after every transformation, exactly
+ * as applying the transformations one after another would, so the result is identical. In
+ * unclamped mode the matrices are instead multiplied into a single matrix, and the pixel is
+ * only truncated and clamped once at the end. This is a single transformation per pixel, but the
+ * result may differ slightly from applying the transformations one after another.
+ */
+public class FusedColorTransformation implements Transformation {
+
+  private AbstractColorTransformation[] stages;
+
+  /**
+   * Constructs a fused transformation from the given chain of color transformations, which are
+   * applied in the order of the list.
+   *
+   * @param stages                          The color transformations to be applied, in order.
+   * @param clampBetweenStages              True to truncate and clamp after every
+   *                                        transformation, false to multiply the matrices
+   *                                        and clamp once.
+   * @throws IllegalArgumentException       if the chain is empty.
+   */
+  public FusedColorTransformation(List<? extends AbstractColorTransformation> stages,
+                                  boolean clampBetweenStages) throws IllegalArgumentException {
+    if (stages.isEmpty()) {
+      throw new IllegalArgumentException("Must have at least 1 color transformation");
+    }
+    if (clampBetweenStages) {
+      this.stages = stages.toArray(new AbstractColorTransformation[0]);
+    } else {
+      double[][] product = stages.get(0).getMatrix();
+      for (int i = 1; i < stages.size(); i++) {
+        product = multiply(stages.get(i).getMatrix(), product);
+      }
+      this.stages = new AbstractColorTransformation[]{new ComposedTransformation(product)};
+    }
+  }
+
+  /**
+   * Multiplies two 3x3 matrices. Applying the result to a pixel is the same as applying the
+   * second matrix, then the first, without any rounding in between.
+   *
+   * @param first           The matrix on the left of the product.
+   * @param second          The matrix on the right of the product.
+   * @return                The product of the matrices.
+   */
+  private static double[][] multiply(double[][] first, double[][] second) {
+    double[][] product = new double[3][3];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        for (int k = 0; k < 3; k++) {
+          product[row][col] += first[row][k] * second[k][col];
+        }
+      }
+    }
+    return product;
+  }
+
+  /**
+   * This method takes the given image, and compiles a new image which is a copy of the original
+   * image, but with every transformation of the chain applied.
+   *
+   * @param originalImage         The original image to be modified.
+   * @param executor              The executor that processes the rows of the image.
+   * @return                      A new image, which is a copy of the original image,
+   *                              with the chain of transformations applied.
+   */
+  public Image apply(Image originalImage, RowExecutor executor) {
+    // A run-length encoded image is transformed one run at a time, and stays encoded.
+    if (originalImage instanceof ImageRLE) {
+      return ((ImageRLE) originalImage).mapColors(color -> {
+        for (AbstractColorTransformation stage : stages) {
+          color = stage.transformPixel(color);
+        }
+        return color;
+      });
+    }
+
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    int[] newPixels = new int[width * height];
+
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      for (int i = firstRow; i < lastRow; i++) {
+        originalImage.getRow(i, newPixels, i * width);
+        for (int j = i * width; j < (i + 1) * width; j++) {
+          int color = newPixels[j];
+          for (AbstractColorTransformation stage : stages) {
+            color = stage.transformPixel(color);
+          }
+          newPixels[j] = color;
+        }
+        executor.finishRows(1);
+      }
+    });
+    return new ImagePacked(width, height, newPixels);
+  }
+
+  /**
+   * Determines if another object is a fused transformation with the same stages, so that it
+   * transforms every image the same way.
+   *
+   * @param other           The object to compare with.
+   * @return                True if the object transforms images the same way, false otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    return Arrays.equals(stages, ((FusedColorTransformation) other).stages);
+  }
+
+  /**
+   * Gets and returns a hash code built from the stages.
+   *
+   * @return                The hash code of the transformation.
+   */
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(stages);
+  }
+
+  /**
+   * This class is a color transformation with an arbitrary matrix, used to hold the product of
+   * the chain's matrices in unclamped mode.
+   */
+  private static class ComposedTransformation extends AbstractColorTransformation {
+
+    private ComposedTransformation(double[][] matrix) {
+      super(matrix);
+    }
+  }
+}
@@ -1,15 +1,45 @@
 package transformations;
 
 import image.Image;
-import image.ImageRGB;
+import image.ImagePacked;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
 
 /**
  * This class represents a Mosaic transformation object. This class takes in an image, and
- * returns a grayscale copy of the image.
+ * returns a copy of the image where each pixel takes the average color of the cluster of
+ * pixels that are closest to the same randomly placed seed.
+ *
+ * <p>A mosaic constructed with a random seed is reproducible: it always places the same seeds
+ * in an image of a given size. The cluster each pixel belongs to then depends only on the
+ * width, height, seed number and random seed, so it is computed once and kept in a shared
+ * cache, and later images of the same size only need their clusters averaged and recolored.
+ * The cache holds at most LABEL_CACHE_CAPACITY cluster assignments in total, which take up a
+ * thirty-second of the largest heap, and drops the least recently used entries to make room.
+ * A mosaic without a random seed places its seeds differently every time, so its cluster
+ * assignments are never cached.
  */
 public class Mosaic implements Transformation {
 
+  /**
+   * The share of the largest heap the cached cluster assignments may use.
+   */
+  private static final int LABEL_CACHE_HEAP_FRACTION = 32;
+
+  private static final long LABEL_CACHE_CAPACITY =
+          Runtime.getRuntime().maxMemory() / LABEL_CACHE_HEAP_FRACTION / Integer.BYTES;
+  private static final Map<List<Long>, int[]> LABEL_CACHE =
+          new LinkedHashMap<>(16, 0.75f, true);
+  private static long labelCacheSize = 0;
+
   private int seedNumber;
+  private Long rngSeed;
   private int[] randomPixelsX;
   private int[] randomPixelsY;
 
@@ -28,98 +58,196 @@ public class Mosaic implements Transformation {
     randomPixelsY = new int[seedNumber];
   }
 
+  /**
+   * This constructs a Mosaic filter object with the given seed number, whose seeds are placed
+   * by a random number generator started from the given random seed. Applying it to images of
+   * the same size always gives the same clusters.
+   *
+   * @param seedNumber                  The number of seeds the mosaic should be created with.
+   * @param rngSeed                     The seed of the random number generator that places
+   *                                    the seeds.
+   * @throws IllegalArgumentException   if the seed number is less than 1.
+   */
+  public Mosaic(int seedNumber, long rngSeed) throws IllegalArgumentException {
+    this(seedNumber);
+    this.rngSeed = rngSeed;
+  }
+
 
   /**
    * This method takes the given image, and compiles a new image which is a copy of the original
    * image, but with the mosaic transformation applied.
    *
+   * The seeds are indexed in a SeedGrid, so finding the closest seed to a pixel only measures
+   * the distance to the few seeds near it. Finding the closest seed for every pixel and adding
+   * it to its cluster's totals, and then recoloring every pixel, are done one band of rows at a
+   * time by the executor. Each band keeps its own totals, which are merged once every band is
+   * finished, so the result is the same however the image is split.
+   *
    * @param original        The original image that is being filtered.
+   * @param executor        The executor that processes the rows of the image.
    * @return                A new image, which is a copy of the original image,
    */
-  public Image apply(Image original) {
-    //Select seedNumber random pixels
-    //assuming duplicate image values rare enough to not be a concern
+  public Image apply(Image original, RowExecutor executor) {
     int width = original.getWidth();
     int height = original.getHeight();
-    //int[] randomPixelsX = new int[seedNumber];
-    //int[] randomPixelsY = new int[seedNumber];
-    for (int i = 0; i < seedNumber; i++) {
-      randomPixelsX[i] = (int) (Math.random() * width);
-      randomPixelsY[i] = (int) (Math.random() * height);
+    List<Long> key = rngSeed == null ? null
+            : Arrays.asList((long) width, (long) height, (long) seedNumber, rngSeed);
+    int[] cached = key == null ? null : getCachedAssignments(key);
+
+    //Select seedNumber random pixels, unless the clusters are already known.
+    //assuming duplicate image values rare enough to not be a concern
+    if (cached == null) {
+      Random random = rngSeed == null ? null : new Random(rngSeed);
+      for (int i = 0; i < seedNumber; i++) {
+        if (random == null) {
+          randomPixelsX[i] = (int) (Math.random() * width);
+          randomPixelsY[i] = (int) (Math.random() * height);
+        } else {
+          randomPixelsX[i] = random.nextInt(width);
+          randomPixelsY[i] = random.nextInt(height);
+        }
+      }
     }
+    SeedGrid grid = cached != null ? null
+            : new SeedGrid(randomPixelsX, randomPixelsY, width, height);
 
-    int[][][] data = original.getData();
-
-    //assign each x/y to a cluster, and average the pixels at the same time.
-    int[][] clusterAssignments = new int[height][width];
-    //temporarily use the "averages" value to store the total, then divide after total number of
-    //cluster pixels is known. This is a weird array in that its first value is for the seed, but it
-    //has 3 depth to represent the RGB colors. Its initialized with all 0's so it can be added to as
-    //needed and then divided later.
-    int[][] clusterPreAverages = new int[seedNumber][3];
-    //used for calculating the average:
-    int[] quantityPerCluster = new int[seedNumber];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int clusterValue = findClosestCluster(j, i);
-        clusterAssignments[i][j] = findClosestCluster(j, i);
-        //System.out.print(clusterAssignments[i][j] + " ");
-
-        quantityPerCluster[clusterValue] += 1;
-        clusterPreAverages[clusterValue][0] += data[i][j][0];
-        clusterPreAverages[clusterValue][1] += data[i][j][1];
-        clusterPreAverages[clusterValue][2] += data[i][j][2];
+    //read the original straight into the array that becomes the new image, assign each x/y to
+    //a cluster, and add each pixel to its cluster's totals, all in one pass per band. Each band
+    //adds up its own totals, as 4 longs per cluster: the number of pixels, and the sum of each
+    //of the 3 channels. Longs cannot overflow, however large a cluster gets.
+    int[] pixels = new int[width * height];
+    int[] clusterAssignments = cached != null ? cached : new int[width * height];
+    long[][] bandTotals = new long[executor.getBandCount(width, height)][];
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      long[] totals = new long[4 * seedNumber];
+      for (int i = firstRow; i < lastRow; i++) {
+        original.getRow(i, pixels, i * width);
+        for (int j = i * width, x = 0; x < width; j++, x++) {
+          int cluster;
+          if (grid == null) {
+            cluster = clusterAssignments[j];
+          } else {
+            cluster = grid.findClosest(x, i);
+            clusterAssignments[j] = cluster;
+          }
+          int color = pixels[j];
+          totals[4 * cluster] += 1;
+          totals[4 * cluster + 1] += (color >> 16) & 0xFF;
+          totals[4 * cluster + 2] += (color >> 8) & 0xFF;
+          totals[4 * cluster + 3] += color & 0xFF;
+        }
+        executor.finishRows(1);
       }
-      //System.out.println("\n");
+      bandTotals[band] = totals;
+    });
+    if (key != null && cached == null) {
+      cacheAssignments(key, clusterAssignments);
     }
-    //perform the averaging calculation:
-    for (int i = 0; i < seedNumber; i++) {
-      if (quantityPerCluster[i] != 0) {
-        clusterPreAverages[i][0] = clusterPreAverages[i][0] / quantityPerCluster[i];
-        clusterPreAverages[i][1] = clusterPreAverages[i][1] / quantityPerCluster[i];
-        clusterPreAverages[i][2] = clusterPreAverages[i][2] / quantityPerCluster[i];
+
+    //merge the totals of every band into the first, then average the pixels of each cluster.
+    long[] totals = bandTotals[0];
+    for (int band = 1; band < bandTotals.length; band++) {
+      for (int i = 0; i < totals.length; i++) {
+        totals[i] += bandTotals[band][i];
       }
     }
-    //now clusterPreAverages are the actual averages
-    //reusing data value:
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int cluster = clusterAssignments[i][j];
-        data[i][j][0] = clusterPreAverages[cluster][0];
-        data[i][j][1] = clusterPreAverages[cluster][1];
-        data[i][j][2] = clusterPreAverages[cluster][2];
+    int[] clusterAverages = new int[seedNumber];
+    for (int i = 0; i < seedNumber; i++) {
+      long quantity = totals[4 * i];
+      if (quantity != 0) {
+        clusterAverages[i] = (int) (totals[4 * i + 1] / quantity) << 16
+                | (int) (totals[4 * i + 2] / quantity) << 8 | (int) (totals[4 * i + 3] / quantity);
       }
     }
 
+    //reusing pixels value:
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      for (int i = firstRow; i < lastRow; i++) {
+        for (int j = i * width; j < (i + 1) * width; j++) {
+          pixels[j] = clusterAverages[clusterAssignments[j]];
+        }
+        executor.finishRows(1);
+      }
+    });
+
     //set image to new value.
-    return new ImageRGB(data);
+    return new ImagePacked(width, height, pixels);
   }
 
-  private double getDistance(int x1, int y1, int x2, int y2) {
-    return Math.pow(x1 - x2, 2) + Math.pow((y1 - y2), 2);
+  /**
+   * Gets and returns the cluster assignments cached under the given key, and marks them as the
+   * most recently used.
+   *
+   * @param key               The width, height, seed number and random seed of the mosaic.
+   * @return                  The cluster of each pixel, or null if none are cached.
+   */
+  private static int[] getCachedAssignments(List<Long> key) {
+    synchronized (LABEL_CACHE) {
+      return LABEL_CACHE.get(key);
+    }
   }
 
   /**
-   * This is a helper method for applying a mosaic to an image. After creating seeds from the
-   * original image, this method finds the closest seed to a pixel using the euclidean distance
-   * formula.
-   * @param locationX         The x location of the pixel.
-   * @param locationY         The y location of the pixel.
-   * @return                  The value of the cluster.
+   * Caches the cluster assignments of a mosaic, dropping the least recently used assignments
+   * until the cache is back within its capacity. Assignments larger than the whole cache are
+   * not cached. The cached array is shared, and is never modified once cached.
+   *
+   * @param key               The width, height, seed number and random seed of the mosaic.
+   * @param assignments       The cluster of each pixel.
    */
-  private int findClosestCluster(int locationX, int locationY) {
-
-    double minDistance = Double.POSITIVE_INFINITY;
-    int clusterValue = -1;
-    for (int i = 0; i < seedNumber; i++) {
-      double currentDistance = getDistance(randomPixelsX[i], randomPixelsY[i]
-              ,locationX, locationY);
-      if (currentDistance < minDistance) {
-        minDistance = currentDistance;
-        clusterValue = i;
+  private static void cacheAssignments(List<Long> key, int[] assignments) {
+    if (assignments.length > LABEL_CACHE_CAPACITY) {
+      return;
+    }
+    synchronized (LABEL_CACHE) {
+      int[] previous = LABEL_CACHE.put(key, assignments);
+      labelCacheSize += assignments.length - (previous == null ? 0 : previous.length);
+      Iterator<int[]> eldest = LABEL_CACHE.values().iterator();
+      while (labelCacheSize > LABEL_CACHE_CAPACITY) {
+        labelCacheSize -= eldest.next().length;
+        eldest.remove();
       }
     }
-    return clusterValue;
+  }
+
+  /**
+   * Determines if another object is a Mosaic that gives the same result on every image: one
+   * with the same seed number and the same random seed. A mosaic without a random seed places
+   * its seeds differently every time, so it is only equal to itself.
+   *
+   * @param other             The object to compare with.
+   * @return                  True if the object gives the same mosaic, false otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    Mosaic mosaic = (Mosaic) other;
+    return rngSeed != null && seedNumber == mosaic.seedNumber && rngSeed.equals(mosaic.rngSeed);
+  }
+
+  /**
+   * Gets and returns a hash code built from the seed number and random seed.
+   *
+   * @return                  The hash code of the mosaic.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * seedNumber + Objects.hashCode(rngSeed);
+  }
+
+  /**
+   * Determines if the mosaic gives the same result every time it is applied to an image,
+   * which is the case if it was constructed with a random seed.
+   *
+   * @return                  True if the mosaic is reproducible, false otherwise.
+   */
+  public boolean isReproducible() {
+    return rngSeed != null;
   }
 }
@@ -0,0 +1,66 @@
+package transformations;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class represents an ordered dither transformation object, which dithers an image to black
+ * and white with a Bayer threshold matrix. The matrix of size 2n is built from the matrix of size
+ * n as the four quadrants 4M, 4M + 2, 4M + 3 and 4M + 1, which spreads consecutive thresholds as
+ * far apart as possible and gives the familiar crosshatch pattern. Matrices are built once per
+ * size and shared.
+ */
+public class OrderedDither extends AbstractThresholdDither {
+
+  private static final Map<Integer, int[]> THRESHOLD_CACHE = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs an ordered dither with a Bayer matrix of the given size.
+   *
+   * @param size                            The width and height of the matrix, which must be
+   *                                        2, 4, 8 or 16.
+   * @throws IllegalArgumentException       if the size is not 2, 4, 8 or 16.
+   */
+  public OrderedDither(int size) throws IllegalArgumentException {
+    super(getThresholds(size), size);
+  }
+
+  /**
+   * Gets and returns the threshold matrix of the given size, building it if it is not cached.
+   *
+   * @param size                            The width and height of the matrix.
+   * @return                                The thresholds of the matrix, row by row.
+   * @throws IllegalArgumentException       if the size is not 2, 4, 8 or 16.
+   */
+  private static int[] getThresholds(int size) throws IllegalArgumentException {
+    if (size < 2 || size > 16 || (size & (size - 1)) != 0) {
+      throw new IllegalArgumentException("Matrix size must be 2, 4, 8 or 16");
+    }
+    return THRESHOLD_CACHE.computeIfAbsent(size, key -> toThresholds(buildRanks(size)));
+  }
+
+  /**
+   * Builds the Bayer rank matrix of the given size, by doubling the 1x1 matrix until it is
+   * large enough.
+   *
+   * @param size          The width and height of the matrix, which is a power of 2.
+   * @return              The rank of each position of the matrix, row by row.
+   */
+  private static int[] buildRanks(int size) {
+    int[] ranks = {0};
+    for (int n = 1; n < size; n *= 2) {
+      int[] next = new int[4 * n * n];
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+          int rank = 4 * ranks[i * n + j];
+          next[i * 2 * n + j] = rank;
+          next[i * 2 * n + j + n] = rank + 2;
+          next[(i + n) * 2 * n + j] = rank + 3;
+          next[(i + n) * 2 * n + j + n] = rank + 1;
+        }
+      }
+      ranks = next;
+    }
+    return ranks;
+  }
+}
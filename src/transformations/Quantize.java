@@ -0,0 +1,410 @@
+package transformations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import image.Image;
+import image.ImagePacked;
+
+/**
+ * This class represents a palette quantization transformation object, which reduces an image to
+ * a palette of at most the given number of colors, chosen to suit the image, and dithers it to
+ * that palette.
+ *
+ * <p>Colors are counted in a histogram of 32x32x32 bins, using the top 5 bits of each channel,
+ * with each band of rows counted in parallel. Each bin also adds up the channels of its pixels,
+ * so palette colors are exact averages. The palette is built from the histogram with the
+ * median cut method. Every bin is then mapped to its closest palette color once, so finding the
+ * closest palette color for a pixel is a single lookup in this inverse color map. Finally the
+ * image is dithered to the palette with Floyd-Steinberg error diffusion on each channel.
+ */
+public class Quantize implements Transformation {
+
+  private static final int BITS = 5;
+  private static final int SIDE = 1 << BITS;
+  private static final int SHIFT = 8 - BITS;
+
+  private int colors;
+
+  /**
+   * Constructs a palette quantization with the given number of colors.
+   *
+   * @param colors                          The largest number of colors in the palette, from 2
+   *                                        to 256.
+   * @throws IllegalArgumentException       if the number of colors is less than 2 or more than
+   *                                        256.
+   */
+  public Quantize(int colors) throws IllegalArgumentException {
+    if (colors < 2 || colors > 256) {
+      throw new IllegalArgumentException("Number of colors must be between 2 and 256");
+    }
+    this.colors = colors;
+  }
+
+  /**
+   * Gets and returns the histogram bin a color falls in.
+   *
+   * @param r             The red channel, from 0 to 255.
+   * @param g             The green channel, from 0 to 255.
+   * @param b             The blue channel, from 0 to 255.
+   * @return              The index of the bin.
+   */
+  private static int binOf(int r, int g, int b) {
+    return ((r >> SHIFT) << (2 * BITS)) | ((g >> SHIFT) << BITS) | (b >> SHIFT);
+  }
+
+  /**
+   * This method takes the given image, and compiles a new image which is a copy of the original
+   * image, but reduced and dithered to a palette of colors.
+   *
+   * @param originalImage        The original image that is being quantized.
+   * @param executor             The executor that counts the colors of the image.
+   * @return                     A new image, which is a copy of the original image,
+   *                             with the palette applied.
+   */
+  public Image apply(Image originalImage, RowExecutor executor) {
+    long[] histogram = buildHistogram(originalImage, executor);
+    int[] palette = buildPalette(histogram);
+    int[] inverseMap = buildInverseMap(palette);
+    executor.checkCancelled();
+    return ditherToPalette(originalImage, palette, inverseMap, executor);
+  }
+
+  /**
+   * Counts the pixels of the image in each histogram bin. Each bin takes 4 longs: the number
+   * of pixels, and the sum of each of their 3 channels. Each band of rows is counted into its
+   * own histogram, and the histograms are added up once every band is finished.
+   *
+   * @param originalImage        The image to count.
+   * @param executor             The executor that processes the rows of the image.
+   * @return                     The histogram.
+   */
+  private static long[] buildHistogram(Image originalImage, RowExecutor executor) {
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    long[][] bandHistograms = new long[executor.getBandCount(width, height)][];
+
+    executor.forEachBand(width, height, (band, firstRow, lastRow) -> {
+      long[] counts = new long[4 * SIDE * SIDE * SIDE];
+      int[] row = new int[width];
+      for (int i = firstRow; i < lastRow; i++) {
+        originalImage.getRow(i, row, 0);
+        for (int j = 0; j < width; j++) {
+          int r = (row[j] >> 16) & 0xFF;
+          int g = (row[j] >> 8) & 0xFF;
+          int b = row[j] & 0xFF;
+          int bin = 4 * binOf(r, g, b);
+          counts[bin]++;
+          counts[bin + 1] += r;
+          counts[bin + 2] += g;
+          counts[bin + 3] += b;
+        }
+        executor.finishRows(1);
+      }
+      bandHistograms[band] = counts;
+    });
+
+    long[] histogram = bandHistograms[0];
+    for (int band = 1; band < bandHistograms.length; band++) {
+      for (int i = 0; i < histogram.length; i++) {
+        histogram[i] += bandHistograms[band][i];
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Builds the palette with the median cut method. All the colors start in one box, shrunk to
+   * the bins that hold pixels. The box with the most pixels that is more than a single bin is
+   * then split in two along its longest side, at the median pixel, until there are as many
+   * boxes as colors or no box can be split. Each palette color is the average of the pixels
+   * in its box.
+   *
+   * @param histogram     The histogram of the image.
+   * @return              The palette, as packed colors.
+   */
+  private int[] buildPalette(long[] histogram) {
+    List<Box> boxes = new ArrayList<>();
+    Box all = new Box(new int[]{0, 0, 0}, new int[]{SIDE - 1, SIDE - 1, SIDE - 1});
+    all.shrink(histogram);
+    boxes.add(all);
+
+    while (boxes.size() < colors) {
+      Box largest = null;
+      for (Box box : boxes) {
+        if (box.getLongestSide() >= 0 && (largest == null || box.count > largest.count)) {
+          largest = box;
+        }
+      }
+      if (largest == null) {
+        break;
+      }
+      boxes.add(largest.split(histogram));
+    }
+
+    int[] palette = new int[boxes.size()];
+    for (int i = 0; i < palette.length; i++) {
+      palette[i] = boxes.get(i).getAverage(histogram);
+    }
+    return palette;
+  }
+
+  /**
+   * Builds the inverse color map, which holds the index of the closest palette color to the
+   * center of each bin. Ties go to the lowest index.
+   *
+   * @param palette       The palette, as packed colors.
+   * @return              The index of the closest palette color for each bin.
+   */
+  private static int[] buildInverseMap(int[] palette) {
+    int[] inverseMap = new int[SIDE * SIDE * SIDE];
+    int half = 1 << (SHIFT - 1);
+    for (int bin = 0; bin < inverseMap.length; bin++) {
+      int r = ((bin >> (2 * BITS)) << SHIFT) + half;
+      int g = (((bin >> BITS) & (SIDE - 1)) << SHIFT) + half;
+      int b = ((bin & (SIDE - 1)) << SHIFT) + half;
+
+      int closest = 0;
+      int minDistance = Integer.MAX_VALUE;
+      for (int i = 0; i < palette.length; i++) {
+        int dr = ((palette[i] >> 16) & 0xFF) - r;
+        int dg = ((palette[i] >> 8) & 0xFF) - g;
+        int db = (palette[i] & 0xFF) - b;
+        int distance = dr * dr + dg * dg + db * db;
+        if (distance < minDistance) {
+          minDistance = distance;
+          closest = i;
+        }
+      }
+      inverseMap[bin] = closest;
+    }
+    return inverseMap;
+  }
+
+  /**
+   * Dithers the image to the palette with Floyd-Steinberg error diffusion, on each channel
+   * separately. As in Dither, only the row being dithered and the row below it are kept, each
+   * with an extra pixel at each end for error that falls off the edge of the image, and each
+   * channel is clamped to 0-255 as its share of the error is added.
+   *
+   * @param originalImage        The image to dither.
+   * @param palette              The palette, as packed colors.
+   * @param inverseMap           The index of the closest palette color for each bin.
+   * @param executor             The executor each finished row is reported to.
+   * @return                     The dithered image.
+   */
+  private static Image ditherToPalette(Image originalImage, int[] palette, int[] inverseMap,
+                                       RowExecutor executor) {
+    int width = originalImage.getWidth();
+    int height = originalImage.getHeight();
+    executor.startRows(height);
+    int[] newPixels = new int[width * height];
+    int[] row = new int[width];
+    int[] current = new int[3 * (width + 2)];
+    int[] below = new int[3 * (width + 2)];
+
+    originalImage.getRow(0, row, 0);
+    unpackRow(row, current);
+    for (int i = 0; i < height; i++) {
+      if (i + 1 < height) {
+        originalImage.getRow(i + 1, row, 0);
+        unpackRow(row, below);
+      }
+
+      for (int j = 1; j <= width; j++) {
+        int k = 3 * j;
+        int newColor = palette[inverseMap[binOf(current[k], current[k + 1], current[k + 2])]];
+        newPixels[i * width + j - 1] = newColor;
+
+        for (int c = 0; c < 3; c++) {
+          int error = current[k + c] - ((newColor >> (16 - 8 * c)) & 0xFF);
+          current[k + 3 + c] = Dither.clamp(current[k + 3 + c] + error * 7 / 16);
+          below[k - 3 + c] = Dither.clamp(below[k - 3 + c] + error * 3 / 16);
+          below[k + c] = Dither.clamp(below[k + c] + error * 5 / 16);
+          below[k + 3 + c] = Dither.clamp(below[k + 3 + c] + error / 16);
+        }
+      }
+
+      int[] swap = current;
+      current = below;
+      below = swap;
+      executor.finishRows(1);
+    }
+    return new ImagePacked(width, height, newPixels);
+  }
+
+  /**
+   * Unpacks a row of packed pixels into 3 channels per pixel, from the second pixel of the
+   * output on, leaving room for the extra pixel at each end.
+   *
+   * @param row           The row of packed pixels.
+   * @param channels      The array the channels are written to.
+   */
+  private static void unpackRow(int[] row, int[] channels) {
+    for (int j = 0; j < row.length; j++) {
+      int color = row[j];
+      channels[3 * j + 3] = (color >> 16) & 0xFF;
+      channels[3 * j + 4] = (color >> 8) & 0xFF;
+      channels[3 * j + 5] = color & 0xFF;
+    }
+  }
+
+  /**
+   * This class represents a box of histogram bins used by the median cut, given by the lowest
+   * and highest bin of each channel, and the number of pixels inside it.
+   */
+  private static class Box {
+
+    private final int[] min;
+    private final int[] max;
+    private long count;
+
+    /**
+     * Constructs a box with the given bounds. The count is not known until the box is shrunk.
+     *
+     * @param min           The lowest bin of each channel.
+     * @param max           The highest bin of each channel.
+     */
+    private Box(int[] min, int[] max) {
+      this.min = min;
+      this.max = max;
+    }
+
+    /**
+     * Gets and returns the channel along which the box is longest, or -1 if the box is a
+     * single bin and cannot be split.
+     *
+     * @return              The longest channel, or -1.
+     */
+    private int getLongestSide() {
+      int longest = -1;
+      int length = 0;
+      for (int c = 0; c < 3; c++) {
+        if (max[c] - min[c] > length) {
+          longest = c;
+          length = max[c] - min[c];
+        }
+      }
+      return longest;
+    }
+
+    /**
+     * Shrinks the box to the smallest box holding all of its pixels, and counts them.
+     *
+     * @param histogram     The histogram of the image.
+     */
+    private void shrink(long[] histogram) {
+      int[] low = {SIDE, SIDE, SIDE};
+      int[] high = {-1, -1, -1};
+      count = 0;
+      for (int r = min[0]; r <= max[0]; r++) {
+        for (int g = min[1]; g <= max[1]; g++) {
+          for (int b = min[2]; b <= max[2]; b++) {
+            long bin = histogram[4 * ((r << (2 * BITS)) | (g << BITS) | b)];
+            if (bin > 0) {
+              count += bin;
+              int[] position = {r, g, b};
+              for (int c = 0; c < 3; c++) {
+                low[c] = Math.min(low[c], position[c]);
+                high[c] = Math.max(high[c], position[c]);
+              }
+            }
+          }
+        }
+      }
+      if (count > 0) {
+        System.arraycopy(low, 0, min, 0, 3);
+        System.arraycopy(high, 0, max, 0, 3);
+      }
+    }
+
+    /**
+     * Splits the box in two along its longest side, at the first bin where at least half of
+     * its pixels have been passed. This box keeps the lower part, and the upper part is
+     * returned. Both parts are shrunk.
+     *
+     * @param histogram     The histogram of the image.
+     * @return              The upper part of the box.
+     */
+    private Box split(long[] histogram) {
+      int side = getLongestSide();
+      long[] counts = new long[SIDE];
+      for (int r = min[0]; r <= max[0]; r++) {
+        for (int g = min[1]; g <= max[1]; g++) {
+          for (int b = min[2]; b <= max[2]; b++) {
+            int position = side == 0 ? r : side == 1 ? g : b;
+            counts[position] += histogram[4 * ((r << (2 * BITS)) | (g << BITS) | b)];
+          }
+        }
+      }
+
+      int median = min[side];
+      long passed = counts[median];
+      while (median < max[side] - 1 && 2 * passed < count) {
+        median++;
+        passed += counts[median];
+      }
+
+      Box upper = new Box(min.clone(), max.clone());
+      upper.min[side] = median + 1;
+      max[side] = median;
+      shrink(histogram);
+      upper.shrink(histogram);
+      return upper;
+    }
+
+    /**
+     * Gets and returns the average color of the pixels in the box.
+     *
+     * @param histogram     The histogram of the image.
+     * @return              The average color, packed as 0xRRGGBB.
+     */
+    private int getAverage(long[] histogram) {
+      long[] sums = new long[3];
+      for (int r = min[0]; r <= max[0]; r++) {
+        for (int g = min[1]; g <= max[1]; g++) {
+          for (int b = min[2]; b <= max[2]; b++) {
+            int bin = 4 * ((r << (2 * BITS)) | (g << BITS) | b);
+            for (int c = 0; c < 3; c++) {
+              sums[c] += histogram[bin + 1 + c];
+            }
+          }
+        }
+      }
+      int color = 0;
+      for (int c = 0; c < 3; c++) {
+        color = (color << 8) | (count == 0 ? 0 : (int) (sums[c] / count));
+      }
+      return color;
+    }
+  }
+
+  /**
+   * Determines if another object is a Quantize with the same number of colors, so that it
+   * quantizes every image the same way.
+   *
+   * @param other                The object to compare with.
+   * @return                     True if the object quantizes images the same way, false
+   *                             otherwise.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    return colors == ((Quantize) other).colors;
+  }
+
+  /**
+   * Gets and returns a hash code built from the number of colors.
+   *
+   * @return                     The hash code of the transformation.
+   */
+  @Override
+  public int hashCode() {
+    return 31 * getClass().getName().hashCode() + colors;
+  }
+}
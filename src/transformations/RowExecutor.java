@@ -0,0 +1,250 @@
+package transformations;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class decides how the rows of an image are split into bands, and runs a task on each
+ * band. A sequential executor runs a single band covering the whole image on the calling
+ * thread. A parallel executor splits the image into up to one band per thread and runs them on
+ * its own ForkJoin pool, but images too small to be worth splitting still run as one band.
+ * Transformations write each band to its own rows, so the result does not depend on how the
+ * image was split.
+ *
+ * <p>An executor can be given a TaskMonitor, which the rows of every band are reported to as
+ * they are finished. Transformations report each row they finish with finishRows, which also
+ * stops them with a CancellationException once the monitor is cancelled.
+ */
+public class RowExecutor {
+
+  /**
+   * The default minimum number of pixels in a band, below which an image is not split further.
+   */
+  public static final int DEFAULT_MIN_PIXELS_PER_BAND = 1 << 16;
+
+  /**
+   * An executor that processes every image as a single band on the calling thread.
+   */
+  public static final RowExecutor SEQUENTIAL = new RowExecutor(1);
+
+  private final int parallelism;
+  private final int minPixelsPerBand;
+  private final ForkJoinPool pool;
+  private final TaskMonitor monitor;
+
+  /**
+   * Constructs an executor with the given parallelism, and the default minimum band size.
+   *
+   * @param parallelism                     The number of threads rows are processed on.
+   * @throws IllegalArgumentException       if the parallelism is less than 1.
+   */
+  public RowExecutor(int parallelism) throws IllegalArgumentException {
+    this(parallelism, DEFAULT_MIN_PIXELS_PER_BAND);
+  }
+
+  /**
+   * Constructs an executor with the given parallelism and minimum band size. A pool of threads
+   * is only created if the parallelism is more than 1.
+   *
+   * @param parallelism                     The number of threads rows are processed on.
+   * @param minPixelsPerBand                The minimum number of pixels in a band.
+   * @throws IllegalArgumentException       if the parallelism or minimum band size is less
+   *                                        than 1.
+   */
+  public RowExecutor(int parallelism, int minPixelsPerBand) throws IllegalArgumentException {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism cannot be less than 1");
+    }
+    if (minPixelsPerBand < 1) {
+      throw new IllegalArgumentException("Minimum band size cannot be less than 1");
+    }
+    this.parallelism = parallelism;
+    this.minPixelsPerBand = minPixelsPerBand;
+    this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    this.monitor = null;
+  }
+
+  /**
+   * Constructs an executor that shares the threads and band sizes of another, and reports to
+   * the given monitor.
+   *
+   * @param executor                        The executor whose threads are shared.
+   * @param monitor                         The monitor rows are reported to.
+   */
+  private RowExecutor(RowExecutor executor, TaskMonitor monitor) {
+    this.parallelism = executor.parallelism;
+    this.minPixelsPerBand = executor.minPixelsPerBand;
+    this.pool = executor.pool;
+    this.monitor = monitor;
+  }
+
+  /**
+   * Gets and returns an executor that splits images and runs bands exactly as this one does,
+   * on the same threads, but reports finished rows to the given monitor, and stops once it is
+   * cancelled.
+   *
+   * @param monitor                         The monitor rows are reported to.
+   * @return                                The monitored executor.
+   */
+  public RowExecutor withMonitor(TaskMonitor monitor) {
+    return new RowExecutor(this, monitor);
+  }
+
+  /**
+   * Shuts down the pool of threads of this executor, if it has one, once the bands already
+   * running are finished. This is for an executor that is being replaced, and should only be
+   * called on the executor that created the pool, once nothing will run on it again, including
+   * through an executor returned by withMonitor.
+   */
+  public void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Gets and returns the number of threads rows are processed on.
+   *
+   * @return                                The parallelism of the executor.
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Gets and returns the number of bands an image of the given size is split into. This is at
+   * most one band per thread and one band per row, and 1 if the image is too small to split.
+   *
+   * @param width                           The width of the image.
+   * @param height                          The height of the image.
+   * @return                                The number of bands.
+   */
+  public int getBandCount(int width, int height) {
+    long bySize = (long) width * height / minPixelsPerBand;
+    return (int) Math.max(1, Math.min(Math.min(parallelism, height), bySize));
+  }
+
+  /**
+   * Gets and returns the first row of a band. Band b covers the rows from getBandStart(b) up
+   * to, but not including, getBandStart(b + 1).
+   *
+   * @param band                            The band.
+   * @param bands                           The number of bands the image is split into.
+   * @param height                          The height of the image.
+   * @return                                The first row of the band.
+   */
+  static int getBandStart(int band, int bands, int height) {
+    return (int) ((long) band * height / bands);
+  }
+
+  /**
+   * Splits an image of the given size into bands of rows, and runs the task on every band.
+   * This method returns once every band is finished. If a band throws an exception, it is
+   * thrown from this method. The rows of the image are added to the monitor's total, if there
+   * is one.
+   *
+   * @param width                           The width of the image.
+   * @param height                          The height of the image.
+   * @param task                            The task to run on each band.
+   */
+  public void forEachBand(int width, int height, BandTask task) {
+    startRows(height);
+    int bands = getBandCount(width, height);
+    if (bands == 1 || pool == null) {
+      task.run(0, 0, height);
+    } else {
+      pool.invoke(new BandAction(task, bands, height, 0, bands));
+    }
+  }
+
+  /**
+   * Adds rows that are about to be processed outside of forEachBand to the monitor's total, if
+   * there is one, and stops if it is cancelled.
+   *
+   * @param rows                            The number of rows.
+   * @throws CancellationException          if the monitor is cancelled.
+   */
+  public void startRows(int rows) throws CancellationException {
+    if (monitor != null) {
+      monitor.checkCancelled();
+      monitor.startRows(rows);
+    }
+  }
+
+  /**
+   * Reports rows that have been finished to the monitor, if there is one, and stops if it is
+   * cancelled. Transformations call this as they finish each row, or each few rows.
+   *
+   * @param rows                            The number of rows.
+   * @throws CancellationException          if the monitor is cancelled.
+   */
+  public void finishRows(int rows) throws CancellationException {
+    if (monitor != null) {
+      monitor.finishRows(rows);
+    }
+  }
+
+  /**
+   * Stops if the monitor is cancelled, without reporting any rows. This is for loops that may
+   * wait a while without finishing a row.
+   *
+   * @throws CancellationException          if the monitor is cancelled.
+   */
+  public void checkCancelled() throws CancellationException {
+    if (monitor != null) {
+      monitor.checkCancelled();
+    }
+  }
+
+  /**
+   * This interface represents a task that processes one band of rows of an image.
+   */
+  public interface BandTask {
+
+    /**
+     * Processes the rows of a single band.
+     *
+     * @param band                          The index of the band, from 0 up to the number of
+     *                                      bands.
+     * @param firstRow                      The first row of the band.
+     * @param lastRow                       The row after the last row of the band.
+     */
+    void run(int band, int firstRow, int lastRow);
+  }
+
+  /**
+   * This class runs a range of bands on the pool, by splitting the range in half until a
+   * single band is left.
+   */
+  private static class BandAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BandTask task;
+    private final int bands;
+    private final int height;
+    private final int firstBand;
+    private final int lastBand;
+
+    private BandAction(BandTask task, int bands, int height, int firstBand, int lastBand) {
+      this.task = task;
+      this.bands = bands;
+      this.height = height;
+      this.firstBand = firstBand;
+      this.lastBand = lastBand;
+    }
+
+    @Override
+    protected void compute() {
+      if (lastBand - firstBand == 1) {
+        task.run(firstBand, getBandStart(firstBand, bands, height),
+                getBandStart(firstBand + 1, bands, height));
+      } else {
+        int middle = (firstBand + lastBand) / 2;
+        invokeAll(new BandAction(task, bands, height, firstBand, middle),
+                new BandAction(task, bands, height, middle, lastBand));
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package transformations;
+
+/**
+ * This class is a spatial index over the seeds of a mosaic, used to find the closest seed to a
+ * pixel without measuring the distance to every seed. The image is divided into a uniform grid of
+ * square cells, sized so that each cell holds about one seed on average, and each seed is stored
+ * in the cell it falls in. A search starts at the pixel's cell and checks rings of cells further
+ * and further out, stopping as soon as no seed in an unchecked cell could be as close as the best
+ * seed found. This makes a search take close to constant time, however many seeds there are.
+ *
+ * <p>The result is exactly the seed a full scan would find: the one at the smallest euclidean
+ * distance, and the one with the lowest index if several are equally close.
+ */
+class SeedGrid {
+
+  private final int[] seedsX;
+  private final int[] seedsY;
+  private final int cellSize;
+  private final int columns;
+  private final int rows;
+  private final int[] cellStarts;
+  private final int[] cellSeeds;
+
+  /**
+   * Constructs a grid over the given seeds, which must all lie inside an image of the given
+   * size.
+   *
+   * @param seedsX          The x location of each seed.
+   * @param seedsY          The y location of each seed.
+   * @param width           The width of the image.
+   * @param height          The height of the image.
+   */
+  SeedGrid(int[] seedsX, int[] seedsY, int width, int height) {
+    this.seedsX = seedsX;
+    this.seedsY = seedsY;
+    this.cellSize = Math.max(1,
+            (int) Math.ceil(Math.sqrt((double) width * height / seedsX.length)));
+    this.columns = (width + cellSize - 1) / cellSize;
+    this.rows = (height + cellSize - 1) / cellSize;
+
+    // Count the seeds in each cell, turn the counts into start positions, then place the seeds.
+    // Seeds are placed in index order, so each cell lists its seeds from lowest index up.
+    this.cellStarts = new int[columns * rows + 1];
+    for (int i = 0; i < seedsX.length; i++) {
+      cellStarts[cellOf(seedsX[i], seedsY[i]) + 1]++;
+    }
+    for (int cell = 0; cell < columns * rows; cell++) {
+      cellStarts[cell + 1] += cellStarts[cell];
+    }
+    this.cellSeeds = new int[seedsX.length];
+    int[] next = new int[columns * rows];
+    for (int i = 0; i < seedsX.length; i++) {
+      int cell = cellOf(seedsX[i], seedsY[i]);
+      cellSeeds[cellStarts[cell] + next[cell]++] = i;
+    }
+  }
+
+  /**
+   * Gets and returns the index of the cell a location falls in.
+   *
+   * @param x               The x location.
+   * @param y               The y location.
+   * @return                The index of the cell.
+   */
+  private int cellOf(int x, int y) {
+    return (y / cellSize) * columns + x / cellSize;
+  }
+
+  /**
+   * Finds the closest seed to a pixel.
+   *
+   * @param x               The x location of the pixel.
+   * @param y               The y location of the pixel.
+   * @return                The index of the closest seed.
+   */
+  int findClosest(int x, int y) {
+    int cellX = x / cellSize;
+    int cellY = y / cellSize;
+    int maxRing = Math.max(Math.max(cellX, columns - 1 - cellX),
+            Math.max(cellY, rows - 1 - cellY));
+
+    long[] best = {Long.MAX_VALUE, -1};
+    for (int ring = 0; ring <= maxRing; ring++) {
+      int top = cellY - ring;
+      int bottom = cellY + ring;
+      int left = cellX - ring;
+      int right = cellX + ring;
+
+      // The top and bottom rows of the ring, then the left and right columns between them.
+      for (int col = Math.max(0, left); col <= Math.min(columns - 1, right); col++) {
+        if (top >= 0) {
+          searchCell(top * columns + col, x, y, best);
+        }
+        if (bottom < rows && ring > 0) {
+          searchCell(bottom * columns + col, x, y, best);
+        }
+      }
+      for (int row = Math.max(0, top + 1); row <= Math.min(rows - 1, bottom - 1); row++) {
+        if (left >= 0) {
+          searchCell(row * columns + left, x, y, best);
+        }
+        if (right < columns && ring > 0) {
+          searchCell(row * columns + right, x, y, best);
+        }
+      }
+
+      // Any seed outside the rings checked so far is at least ring * cellSize + 1 away.
+      long reach = (long) ring * cellSize + 1;
+      if (best[0] < reach * reach) {
+        break;
+      }
+    }
+    return (int) best[1];
+  }
+
+  /**
+   * Measures the distance from a pixel to every seed in a cell, and updates the best seed found
+   * so far if one is closer, or equally close with a lower index.
+   *
+   * @param cell            The index of the cell.
+   * @param x               The x location of the pixel.
+   * @param y               The y location of the pixel.
+   * @param best            The squared distance and index of the best seed found so far.
+   */
+  private void searchCell(int cell, int x, int y, long[] best) {
+    for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+      int seed = cellSeeds[k];
+      long dx = seedsX[seed] - x;
+      long dy = seedsY[seed] - y;
+      long distance = dx * dx + dy * dy;
+      if (distance < best[0] || (distance == best[0] && seed < best[1])) {
+        best[0] = distance;
+        best[1] = seed;
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package transformations;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class follows a single operation while it runs: how many rows it has finished out of
+ * the rows it has started, and whether it has been asked to stop. An executor given a monitor
+ * with RowExecutor.withMonitor reports every row a transformation finishes to it, and throws a
+ * CancellationException from the transformation once the monitor is cancelled, so cancelling
+ * stops a transformation within a row.
+ *
+ * <p>A transformation may make several passes over an image, and each pass adds its rows to
+ * the total when it starts, so the progress can fall back when a new pass starts. A monitor
+ * can be read and cancelled from any thread.
+ */
+public class TaskMonitor {
+
+  private final AtomicLong startedRows;
+  private final AtomicLong finishedRows;
+  private volatile boolean cancelled;
+
+  /**
+   * Constructs a monitor for an operation that has not started any rows yet.
+   */
+  public TaskMonitor() {
+    startedRows = new AtomicLong();
+    finishedRows = new AtomicLong();
+  }
+
+  /**
+   * Asks the operation to stop. It stops the next time it finishes a row or checks for
+   * cancellation.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Determines if the operation has been asked to stop.
+   *
+   * @return                                True if the monitor is cancelled, false otherwise.
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Gets and returns the share of the rows started so far that are finished.
+   *
+   * @return                                The progress, from 0 to 1.
+   */
+  public double getProgress() {
+    long started = startedRows.get();
+    return started == 0 ? 0 : Math.min(1, (double) finishedRows.get() / started);
+  }
+
+  /**
+   * Throws a CancellationException if the operation has been asked to stop.
+   *
+   * @throws CancellationException          if the monitor is cancelled.
+   */
+  public void checkCancelled() throws CancellationException {
+    if (cancelled) {
+      throw new CancellationException("Operation was cancelled");
+    }
+  }
+
+  /**
+   * Adds rows that the operation is about to process to its total.
+   *
+   * @param rows                            The number of rows.
+   */
+  void startRows(long rows) {
+    startedRows.addAndGet(rows);
+  }
+
+  /**
+   * Adds rows that the operation has finished to its progress, and then stops it if it has
+   * been asked to.
+   *
+   * @param rows                            The number of rows.
+   * @throws CancellationException          if the monitor is cancelled.
+   */
+  void finishRows(long rows) throws CancellationException {
+    finishedRows.addAndGet(rows);
+    checkCancelled();
+  }
+}
@@ -7,6 +7,9 @@ import image.Image;
  * This interface represents all methods that Transformation is expected to support.
  * Transformations can be color transformations or filters, and each implementation of
  * Transformation has its own implementation of the apply method.
+ *
+ * <p>Two transformations that are equal must transform every image in exactly the same way, so
+ * that the result of one can be reused for the other, as ResultCache does.
  */
 public interface Transformation {
   /**
@@ -16,5 +19,18 @@ public interface Transformation {
    * @return                      A new image, which is a copy of the original image,
    *                              with the transformation applied.
    */
-  Image apply(Image originalImage);
+  default Image apply(Image originalImage) {
+    return apply(originalImage, RowExecutor.SEQUENTIAL);
+  }
+
+  /**
+   * This method takes the given image, and compiles a new image which is a copy of the original
+   * image, but with the transformation applied. The rows of the image are processed by the
+   * given executor, and the result is identical to that of a sequential executor.
+   * @param originalImage         The original image to be modified.
+   * @param executor              The executor that processes the rows of the image.
+   * @return                      A new image, which is a copy of the original image,
+   *                              with the transformation applied.
+   */
+  Image apply(Image originalImage, RowExecutor executor);
 }
@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import image.Image;
+import image.ImagePacked;
+import image.ImageRLE;
+import transformations.Greyscale;
+import transformations.RowExecutor;
+import transformations.Sepia;
+import transformations.Transformation;
+
+/**
+ * Tests that transforming colors through lookup tables gives exactly the colors the matrix
+ * multiplication of each pixel always gave.
+ */
+public class ColorTransformationTest {
+
+  private static final double[][] GREYSCALE = {
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722}};
+
+  private static final double[][] SEPIA = {
+      {.393, .769, .189},
+      {.349, .686, .168},
+      {.272, .534, .131}};
+
+  @Test
+  public void greyscaleMatchesTheMatrixForEveryColor() {
+    assertMatchesTheMatrix(new Greyscale(), GREYSCALE);
+  }
+
+  @Test
+  public void sepiaMatchesTheMatrixForEveryColor() {
+    assertMatchesTheMatrix(new Sepia(), SEPIA);
+  }
+
+  @Test
+  public void encodedImagesMatchPackedImages() {
+    int[] pixels = new int[40 * 30];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = (i / 97) * 0x1F2F3F & 0xFFFFFF;
+    }
+    Image packed = new ImagePacked(40, 30, pixels);
+    ImageRLE encoded = ImageRLE.encode(packed);
+    assertArrayEquals(new Sepia().apply(packed).getPixels(),
+            new Sepia().apply(encoded).getPixels());
+  }
+
+  /**
+   * Checks that a color transformation gives the same color as multiplying by its matrix, for
+   * every one of the 2^24 colors, both sequentially and in parallel.
+   *
+   * @param transformation  The color transformation.
+   * @param matrix          Its matrix.
+   */
+  private static void assertMatchesTheMatrix(Transformation transformation, double[][] matrix) {
+    int[] pixels = new int[1 << 24];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = i;
+    }
+    Image image = new ImagePacked(1 << 12, 1 << 12, pixels);
+    RowExecutor executor = new RowExecutor(4);
+    try {
+      int[] sequential = transformation.apply(image).getPixels();
+      int[] parallel = transformation.apply(image, executor).getPixels();
+      for (int color = 0; color < pixels.length; color++) {
+        assertEquals("color " + Integer.toHexString(color), multiply(matrix, color),
+                sequential[color]);
+      }
+      assertArrayEquals(sequential, parallel);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Multiplies a color by a matrix the way the color transformations always have, truncating
+   * and clamping each channel.
+   *
+   * @param matrix          The 3x3 matrix.
+   * @param color           The color, packed as 0xRRGGBB.
+   * @return                The transformed color, packed as 0xRRGGBB.
+   */
+  private static int multiply(double[][] matrix, int color) {
+    int r = (color >> 16) & 0xFF;
+    int g = (color >> 8) & 0xFF;
+    int b = color & 0xFF;
+    int result = 0;
+    for (double[] row : matrix) {
+      int channel = (int) (row[0] * r + row[1] * g + row[2] * b);
+      result = (result << 8) | Math.min(255, Math.max(0, channel));
+    }
+    return result;
+  }
+}
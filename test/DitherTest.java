@@ -0,0 +1,41 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import image.Image;
+import transformations.Dither;
+import transformations.RowExecutor;
+
+/**
+ * Tests that dithering a wavefront of rows on several threads gives exactly the same image as
+ * dithering in scan order.
+ */
+public class DitherTest {
+
+  @Test
+  public void wavefrontMatchesSequential() {
+    int[][] sizes = {{1, 1}, {1, 300}, {300, 1}, {2, 400}, {257, 190}, {640, 480}};
+    for (int[] size : sizes) {
+      Image image = TestImages.randomImage(size[0], size[1], size[0] * 31L + size[1]);
+      int[] sequential = new Dither().apply(image, RowExecutor.SEQUENTIAL).getPixels();
+      for (int threads : new int[] {2, 3, 8}) {
+        RowExecutor executor = new RowExecutor(threads, 1);
+        try {
+          assertArrayEquals(size[0] + "x" + size[1] + " on " + threads + " threads",
+                  sequential, new Dither().apply(image, executor).getPixels());
+        } finally {
+          executor.shutdown();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void onlyBlackAndWhite() {
+    int[] pixels = new Dither().apply(TestImages.randomImage(100, 80, 5)).getPixels();
+    for (int pixel : pixels) {
+      assertTrue(pixel == 0 || pixel == 0xFFFFFF);
+    }
+  }
+}
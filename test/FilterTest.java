@@ -0,0 +1,132 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import image.Image;
+import image.ImagePacked;
+import transformations.AbstractFilter;
+import transformations.Blur;
+import transformations.RowExecutor;
+import transformations.Sharpen;
+
+/**
+ * Tests that the filters truncate their sums after every term, as the filters always have,
+ * whether they are applied as a full 2d pass or as row passes.
+ */
+public class FilterTest {
+
+  private static final double[][] BLUR = {
+      {1.0 / 16, 1.0 / 8, 1.0 / 16},
+      {1.0 / 8, 1.0 / 4, 1.0 / 8},
+      {1.0 / 16, 1.0 / 8, 1.0 / 16}};
+
+  private static final double[][] SHARPEN = {
+      {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8},
+      {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+      {-1.0 / 8, 1.0 / 4, 1.0, 1.0 / 4, -1.0 / 8},
+      {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+      {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8}};
+
+  @Test
+  public void sharpenTruncatesAfterEveryTerm() {
+    Image image = TestImages.randomImage(37, 23, 1);
+    assertArrayEquals(filter(image, SHARPEN),
+            new Sharpen().apply(image).getPixels());
+  }
+
+  @Test
+  public void blurMatchesTheFullKernel() {
+    Image image = TestImages.randomImage(37, 23, 2);
+    assertArrayEquals(filter(image, BLUR), new Blur().apply(image).getPixels());
+  }
+
+  @Test
+  public void rowPassesMatchTheFullKernel() {
+    // Exact, non-negative terms in rows that are not all alike, so some rows share their sums.
+    double[][] kernel = {
+        {1.0 / 32, 0, 3.0 / 64, 0, 1.0 / 32},
+        {1.0 / 8, 1.0 / 4, 3.0 / 8, 1.0 / 4, 1.0 / 8},
+        {1.0 / 32, 0, 3.0 / 64, 0, 1.0 / 32},
+        {1.0 / 16, 1.0 / 16, 1.0 / 16, 1.0 / 16, 1.0 / 16},
+        {0, 0, 1.0 / 2, 0, 0}};
+    Image image = TestImages.randomImage(29, 41, 4);
+    assertArrayEquals(filter(image, kernel), new AbstractFilter(kernel) { }
+            .apply(image).getPixels());
+  }
+
+  @Test
+  public void inexactKernelMatchesTheFullKernel() {
+    // Ninths are not exact in a double, so this kernel is applied as a full 2d pass.
+    double[][] kernel = new double[3][3];
+    for (double[] kernelRow : kernel) {
+      Arrays.fill(kernelRow, 1.0 / 9);
+    }
+    Image image = TestImages.randomImage(31, 19, 5);
+    assertArrayEquals(filter(image, kernel), new AbstractFilter(kernel) { }
+            .apply(image).getPixels());
+  }
+
+  @Test
+  public void blurOfUniformImage() {
+    int[] pixels = new int[5 * 4];
+    Arrays.fill(pixels, 0x646464);
+    int[] blurred = new Blur().apply(new ImagePacked(5, 4, pixels)).getPixels();
+    // Each term is truncated: 100 / 4 = 25, 100 / 8 = 12 and 100 / 16 = 6, so a corner is
+    // 25 + 2 * 12 + 6 = 55, an edge is 25 + 3 * 12 + 2 * 6 = 73 and inside is 97.
+    assertEquals(0x373737, blurred[0]);
+    assertEquals(0x494949, blurred[2]);
+    assertEquals(0x616161, blurred[5 + 2]);
+  }
+
+  @Test
+  public void filtersAreTheSameInParallel() {
+    Image image = TestImages.randomImage(300, 700, 3);
+    RowExecutor executor = new RowExecutor(4, 1000);
+    try {
+      assertArrayEquals(new Blur().apply(image).getPixels(),
+              new Blur().apply(image, executor).getPixels());
+      assertArrayEquals(new Sharpen().apply(image).getPixels(),
+              new Sharpen().apply(image, executor).getPixels());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Filters an image the slow way, as a full 2d pass that truncates the sum after every term,
+   * with pixels beyond the border treated as black.
+   *
+   * @param image           The image to be filtered.
+   * @param kernel          The kernel.
+   * @return                The filtered pixels.
+   */
+  private static int[] filter(Image image, double[][] kernel) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int spread = kernel.length / 2;
+    int[] result = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int color = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+          double sum = 0;
+          for (int i = 0; i < kernel.length; i++) {
+            for (int j = 0; j < kernel.length; j++) {
+              int row = y + i - spread;
+              int col = x + j - spread;
+              if (row >= 0 && row < height && col >= 0 && col < width) {
+                sum = (int) (sum + kernel[i][j] * ((image.getRGB(col, row) >> shift) & 0xFF));
+              }
+            }
+          }
+          color |= Math.min(255, Math.max(0, (int) sum)) << shift;
+        }
+        result[y * width + x] = color;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import image.Image;
+import image.ImageRLE;
+import transformations.AbstractColorTransformation;
+import transformations.FusedColorTransformation;
+import transformations.Greyscale;
+import transformations.RowExecutor;
+import transformations.Sepia;
+
+/**
+ * Tests that a fused chain of color transformations gives the same image as running its
+ * transformations one after another, or, unclamped, as running the product of their matrices.
+ */
+public class FusedColorTransformationTest {
+
+  private static final double[][] GREYSCALE = {
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722}};
+
+  private static final double[][] SEPIA = {
+      {.393, .769, .189},
+      {.349, .686, .168},
+      {.272, .534, .131}};
+
+  private static final List<AbstractColorTransformation> CHAIN =
+          Arrays.asList(new Sepia(), new Greyscale(), new Sepia(), new Sepia());
+
+  @Test
+  public void clampedMatchesOneAfterAnother() {
+    Image image = TestImages.randomImage(123, 77, 1);
+    Image expected = image;
+    for (AbstractColorTransformation stage : CHAIN) {
+      expected = stage.apply(expected);
+    }
+    assertArrayEquals(expected.getPixels(),
+            new FusedColorTransformation(CHAIN, true).apply(image).getPixels());
+  }
+
+  @Test
+  public void unclampedMatchesTheProductOfTheMatrices() {
+    Image image = TestImages.randomImage(123, 77, 2);
+    double[][] product = multiply(SEPIA, multiply(SEPIA, multiply(GREYSCALE, SEPIA)));
+    int[] expected = new AbstractColorTransformation(product) { }.apply(image).getPixels();
+    int[] unclamped = new FusedColorTransformation(CHAIN, false).apply(image).getPixels();
+    assertArrayEquals(expected, unclamped);
+    // Sepia pushes bright pixels past 255, so clamping between the stages changes the result.
+    assertFalse(Arrays.equals(expected,
+            new FusedColorTransformation(CHAIN, true).apply(image).getPixels()));
+  }
+
+  @Test
+  public void sameInParallelAndOnEncodedImages() {
+    Image image = TestImages.randomImage(300, 700, 3);
+    FusedColorTransformation fused = new FusedColorTransformation(CHAIN, true);
+    int[] sequential = fused.apply(image).getPixels();
+    RowExecutor executor = new RowExecutor(4, 1000);
+    try {
+      assertArrayEquals(sequential, fused.apply(image, executor).getPixels());
+    } finally {
+      executor.shutdown();
+    }
+    ImageRLE encoded = ImageRLE.encode(image);
+    assertArrayEquals(sequential, fused.apply(encoded).getPixels());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyChain() {
+    new FusedColorTransformation(Arrays.asList(), true);
+  }
+
+  /**
+   * Multiplies two 3x3 matrices, so that applying the product is the same as applying the
+   * second matrix and then the first.
+   *
+   * @param first           The matrix on the left of the product.
+   * @param second          The matrix on the right of the product.
+   * @return                The product of the matrices.
+   */
+  private static double[][] multiply(double[][] first, double[][] second) {
+    double[][] product = new double[3][3];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        for (int k = 0; k < 3; k++) {
+          product[row][col] += first[row][k] * second[k][col];
+        }
+      }
+    }
+    return product;
+  }
+}
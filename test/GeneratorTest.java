@@ -0,0 +1,47 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import generator.CheckerboardGenerator;
+import generator.GeneratorInterface;
+import generator.GreeceGenerator;
+import image.Image;
+
+/**
+ * Tests that generated images read back the same pixels however they are read, and however
+ * often they are generated.
+ */
+public class GeneratorTest {
+
+  @Test
+  public void checkerboardSquares() {
+    Image board = new CheckerboardGenerator(23, 17, 5).generate();
+    int[] pixels = board.getPixels();
+    for (int y = 0; y < 17; y++) {
+      for (int x = 0; x < 23; x++) {
+        int expected = x >= 20 || y >= 15 ? 0 : (x / 5 + y / 5) % 2 == 0 ? 0xFFFFFF : 0;
+        assertEquals("pixel " + x + "," + y, expected, pixels[y * 23 + x]);
+        assertEquals("pixel " + x + "," + y, expected, board.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void generatingAgainGivesTheSameImage() {
+    GeneratorInterface generator = new GreeceGenerator(90);
+    int[] first = generator.generate().getPixels();
+    assertArrayEquals(first, generator.generate().getPixels());
+    assertArrayEquals(first, generator.generate().getPixels());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroSquareSize() {
+    new CheckerboardGenerator(20, 20, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeSquareSize() {
+    new CheckerboardGenerator(20, 20, -3);
+  }
+}
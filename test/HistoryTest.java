@@ -0,0 +1,192 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import image.Image;
+import image.ImagePacked;
+import transformations.Blur;
+import transformations.Greyscale;
+import transformations.Mosaic;
+import transformations.RowExecutor;
+import transformations.Sepia;
+import transformations.Sharpen;
+import transformations.Transformation;
+
+/**
+ * Tests that the history gives back exactly the images it was given, however they are held.
+ */
+public class HistoryTest {
+
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  @Test
+  public void undoAndRedoWithinBudget() {
+    History history = new History(Long.MAX_VALUE);
+    List<int[]> images = pushImages(history, 12, false, 1);
+    assertUndoRedo(history, images);
+  }
+
+  @Test
+  public void undoAndRedoAfterCompression() {
+    // Enough for the whole images at the top of both stacks, but not for the rest.
+    long budget = 2L * History.HOT_ENTRIES * 4 * WIDTH * HEIGHT + 64 * 1024;
+    History history = new History(budget);
+    List<int[]> images = pushImages(history, 3 * History.GROUP_SIZE, false, 2);
+    assertTrue(history.getByteSize() <= budget);
+    assertUndoRedo(history, images);
+    assertTrue(history.getByteSize() <= budget);
+  }
+
+  @Test
+  public void undoAndRedoAfterSpilling() {
+    // Random pixels do not compress, so everything below the top of each stack is spilled.
+    long budget = 2L * History.HOT_ENTRIES * 4 * WIDTH * HEIGHT + 64 * 1024;
+    History history = new History(budget);
+    List<int[]> images = pushImages(history, 30, true, 4);
+    assertTrue(history.getByteSize() <= budget);
+    assertUndoRedo(history, images);
+    assertTrue(history.getByteSize() <= budget);
+
+    history.clear();
+    images = pushImages(history, 30, true, 5);
+    assertUndoRedo(history, images);
+  }
+
+  @Test
+  public void shrinkingTheBudgetKeepsEveryImage() {
+    History history = new History(Long.MAX_VALUE);
+    List<int[]> images = pushImages(history, 20, false, 3);
+    long budget = 2L * History.HOT_ENTRIES * 4 * WIDTH * HEIGHT + 64 * 1024;
+    history.setBudget(budget);
+    assertTrue(history.getByteSize() <= budget);
+    assertUndoRedo(history, images);
+  }
+
+  @Test
+  public void undoAndRedoReplayedRecipes() {
+    // With no budget, every image below the top of each stack is kept only as its recipe.
+    History history = new History(0);
+    List<int[]> images = pushImages(history, 1, true, 6);
+    Transformation[] transformations = {new Blur(), new Sepia(), new Sharpen(),
+        new Greyscale(), new Mosaic(20, 9L)};
+    for (int i = 0; i < 3 * History.MAX_KEYFRAME_INTERVAL; i++) {
+      history.apply(transformations[i % transformations.length], RowExecutor.SEQUENTIAL);
+      images.add(history.peek().getPixels());
+    }
+    assertUndoRedo(history, images);
+  }
+
+  @Test
+  public void replayMatchesOnAnyExecutor() {
+    History history = new History(0);
+    RowExecutor executor = new RowExecutor(3, 1);
+    try {
+      history.setExecutor(executor);
+      List<int[]> images = pushImages(history, 1, true, 7);
+      for (int i = 0; i < 12; i++) {
+        history.apply(i % 2 == 0 ? new Blur() : new Sharpen(), executor);
+        images.add(history.peek().getPixels());
+      }
+      assertUndoRedo(history, images);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void unseededMosaicIsKeptAsAnImage() {
+    History history = new History(0);
+    List<int[]> images = pushImages(history, 1, true, 8);
+    history.apply(new Mosaic(30), RowExecutor.SEQUENTIAL);
+    images.add(history.peek().getPixels());
+    for (int i = 0; i < 2 * History.HOT_ENTRIES; i++) {
+      history.apply(new Greyscale(), RowExecutor.SEQUENTIAL);
+      images.add(history.peek().getPixels());
+    }
+    assertUndoRedo(history, images);
+  }
+
+  @Test
+  public void recordedResultsReplay() {
+    History history = new History(0);
+    List<int[]> images = pushImages(history, 1, true, 9);
+    for (int i = 0; i < 2 * History.HOT_ENTRIES; i++) {
+      Image result = new Sepia().apply(history.peek());
+      history.record(new Sepia(), result);
+      images.add(result.getPixels());
+    }
+    assertUndoRedo(history, images);
+  }
+
+  @Test(expected = EmptyStackException.class)
+  public void peekWhenEmpty() {
+    new History(0).peek();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeBudget() {
+    new History(-1);
+  }
+
+  /**
+   * Pushes images onto a history, each a small change to the one before it.
+   *
+   * @param history         The history.
+   * @param count           The number of images.
+   * @param noise           True for images of random pixels that do not compress, false for
+   *                        smooth images that do.
+   * @param seed            The seed of the random changes.
+   * @return                The pixels of each image, in the order they were pushed.
+   */
+  static List<int[]> pushImages(History history, int count, boolean noise, long seed) {
+    Random random = new Random(seed);
+    List<int[]> images = new ArrayList<>();
+    int[] pixels = new int[WIDTH * HEIGHT];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = noise ? random.nextInt(1 << 24) : (i % WIDTH) * 0x030201;
+    }
+    for (int n = 0; n < count; n++) {
+      int left = random.nextInt(WIDTH);
+      int top = random.nextInt(HEIGHT);
+      for (int y = top; y < Math.min(HEIGHT, top + 10); y++) {
+        for (int x = left; x < Math.min(WIDTH, left + 10); x++) {
+          pixels[y * WIDTH + x] = noise ? random.nextInt(1 << 24) : n * 0x0A0B0C;
+        }
+      }
+      images.add(pixels.clone());
+      history.push(new ImagePacked(WIDTH, HEIGHT, pixels.clone()));
+    }
+    return images;
+  }
+
+  /**
+   * Undoes to the first image of a history and redoes back to the last, checking every image
+   * on the way.
+   *
+   * @param history         The history.
+   * @param images          The pixels of every image in the history, oldest first.
+   */
+  static void assertUndoRedo(History history, List<int[]> images) {
+    int last = images.size() - 1;
+    assertEquals(images.size(), history.getUndoCount());
+    assertArrayEquals(images.get(last), history.peek().getPixels());
+    for (int i = last - 1; i >= 0; i--) {
+      history.undo();
+      assertArrayEquals("undo to " + i, images.get(i), history.peek().getPixels());
+    }
+    assertEquals(last, history.getRedoCount());
+    for (int i = 1; i <= last; i++) {
+      history.redo();
+      assertArrayEquals("redo to " + i, images.get(i), history.peek().getPixels());
+    }
+    assertEquals(0, history.getRedoCount());
+  }
+}
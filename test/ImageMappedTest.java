@@ -0,0 +1,76 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+import image.Image;
+import image.ImageMapped;
+
+/**
+ * Tests that an image written to a mapped file reads back exactly the pixels it was written
+ * from.
+ */
+public class ImageMappedTest {
+
+  @Test
+  public void roundTripsAtAnyPosition() throws IOException {
+    Image first = TestImages.randomImage(31, 17, 1);
+    Image second = TestImages.randomImage(5, 40, 2);
+    try (FileChannel channel = openScratchFile()) {
+      long secondPosition = 7 + ImageMapped.getFileSize(31, 17);
+      ImageMapped mappedFirst = ImageMapped.write(first, channel, 7);
+      ImageMapped mappedSecond = ImageMapped.write(second, channel, secondPosition);
+      assertRoundTrips(first, mappedFirst);
+      assertRoundTrips(second, mappedSecond);
+      assertEquals(secondPosition + ImageMapped.getFileSize(5, 40), channel.size());
+    }
+  }
+
+  @Test
+  public void rewritingTheRegionOfAnotherImage() throws IOException {
+    Image image = TestImages.randomImage(20, 20, 3);
+    try (FileChannel channel = openScratchFile()) {
+      ImageMapped.write(TestImages.randomImage(20, 20, 4), channel, 0);
+      assertRoundTrips(image, ImageMapped.write(image, channel, 0));
+    }
+  }
+
+  /**
+   * Checks that every way of reading a mapped image gives the original pixels.
+   *
+   * @param expected        The image that was written.
+   * @param mapped          The image read back from the file.
+   */
+  private static void assertRoundTrips(Image expected, ImageMapped mapped) {
+    int width = expected.getWidth();
+    int height = expected.getHeight();
+    int[] pixels = expected.getPixels();
+    assertEquals(width, mapped.getWidth());
+    assertEquals(height, mapped.getHeight());
+    assertArrayEquals(pixels, mapped.getPixels());
+    int[] row = new int[width + 1];
+    for (int y = 0; y < height; y++) {
+      mapped.getRow(y, row, 1);
+      for (int x = 0; x < width; x++) {
+        assertEquals(pixels[y * width + x], row[1 + x]);
+        assertEquals(pixels[y * width + x], mapped.getRGB(x, y));
+      }
+    }
+  }
+
+  /**
+   * Opens a scratch file that is deleted once it is closed.
+   *
+   * @return                The open file.
+   * @throws IOException    if the file cannot be created.
+   */
+  private static FileChannel openScratchFile() throws IOException {
+    return FileChannel.open(Files.createTempFile("mapped", ".rgb"), StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+  }
+}
@@ -0,0 +1,123 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import image.Image;
+import image.ImagePacked;
+import image.ImageRLE;
+
+/**
+ * Tests that a run-length encoded image reads back exactly the pixels it was encoded from.
+ */
+public class ImageRLETest {
+
+  @Test
+  public void roundTripsBanded() {
+    assertRoundTrips(bandedImage(90, 70, 3));
+  }
+
+  @Test
+  public void roundTripsNoise() {
+    Random random = new Random(4);
+    int[] pixels = new int[33 * 17];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = random.nextInt(1 << 24);
+    }
+    assertRoundTrips(new ImagePacked(33, 17, pixels));
+  }
+
+  @Test
+  public void roundTripsSinglePixel() {
+    assertRoundTrips(new ImagePacked(1, 1, new int[] {0x123456}));
+  }
+
+  @Test
+  public void repeatedRowsAreStoredOnce() {
+    int[] pixels = new int[10 * 50];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = i % 10 < 5 ? 0xFF0000 : 0x0000FF;
+    }
+    assertEquals(2, ImageRLE.encode(new ImagePacked(10, 50, pixels)).getRunCount());
+  }
+
+  @Test
+  public void givesUpPastMaxRuns() {
+    Image image = bandedImage(90, 70, 3);
+    long runs = ImageRLE.encode(image).getRunCount();
+    assertNull(ImageRLE.encode(image, runs - 1));
+    assertEquals(runs, ImageRLE.encode(image, runs).getRunCount());
+  }
+
+  @Test
+  public void mapColorsMatchesMappingEveryPixel() {
+    Image image = bandedImage(60, 40, 9);
+    int[] expected = image.getPixels();
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = expected[i] ^ 0xFFFFFF;
+    }
+    assertArrayEquals(expected,
+            ImageRLE.encode(image).mapColors(color -> color ^ 0xFFFFFF).getPixels());
+  }
+
+  /**
+   * Checks that every way of reading an encoded image gives the original pixels.
+   *
+   * @param image           The image to be encoded.
+   */
+  private static void assertRoundTrips(Image image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] expected = image.getPixels();
+    ImageRLE encoded = ImageRLE.encode(image);
+
+    assertEquals(width, encoded.getWidth());
+    assertEquals(height, encoded.getHeight());
+    assertArrayEquals(expected, encoded.getPixels());
+    int[] row = new int[width + 2];
+    for (int y = 0; y < height; y++) {
+      encoded.getRow(y, row, 2 - y % 3);
+      for (int x = 0; x < width; x++) {
+        assertEquals(expected[y * width + x], row[2 - y % 3 + x]);
+        assertEquals(expected[y * width + x], encoded.getRGB(x, y));
+      }
+    }
+    int[][][] data = encoded.getData();
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int color = expected[y * width + x];
+        assertArrayEquals(new int[] {color >> 16 & 0xFF, color >> 8 & 0xFF, color & 0xFF},
+                data[y][x]);
+      }
+    }
+  }
+
+  /**
+   * Creates an image of random rectangles of color, with runs of repeated rows.
+   *
+   * @param width           The width of the image.
+   * @param height          The height of the image.
+   * @param seed            The seed of the random rectangles.
+   * @return                The image.
+   */
+  private static Image bandedImage(int width, int height, long seed) {
+    Random random = new Random(seed);
+    int[] pixels = new int[width * height];
+    for (int rect = 0; rect < 12; rect++) {
+      int left = random.nextInt(width);
+      int top = random.nextInt(height);
+      int right = left + 1 + random.nextInt(width - left);
+      int bottom = top + 1 + random.nextInt(height - top);
+      int color = random.nextInt(1 << 24);
+      for (int y = top; y < bottom; y++) {
+        for (int x = left; x < right; x++) {
+          pixels[y * width + x] = color;
+        }
+      }
+    }
+    return new ImagePacked(width, height, pixels);
+  }
+}
@@ -0,0 +1,197 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import image.Image;
+import image.ImagePacked;
+import transformations.Blur;
+import transformations.Greyscale;
+import transformations.Sepia;
+import transformations.TaskMonitor;
+
+/**
+ * Tests that the model gives the same images however its operations are carried out.
+ */
+public class ModelTest {
+
+  @Test
+  public void fusedColorTransformationsMatchOneAfterAnother() {
+    Model model = new Model();
+    model.generateHorizontalRainbow(70, 50);
+    model.blur();
+    Image before = toImage(model.convertImage());
+
+    model.setFusion(true);
+    model.sepia();
+    model.greyScale();
+    model.sepia();
+    model.setFusion(false);
+
+    Image expected = new Sepia().apply(new Greyscale().apply(new Sepia().apply(before)));
+    assertArrayEquals(expected.getPixels(), toImage(model.convertImage()).getPixels());
+    // The whole chain is a single operation.
+    model.undoImage();
+    assertArrayEquals(before.getPixels(), toImage(model.convertImage()).getPixels());
+  }
+
+  @Test
+  public void fusionFlushesOnTheNextOtherOperation() {
+    Model model = new Model();
+    model.generateVerticalRainbow(70, 50);
+    Image before = toImage(model.convertImage());
+
+    model.setFusion(true);
+    model.sepia();
+    model.greyScale();
+    model.blur();
+    model.setFusion(false);
+
+    Image expected = new Blur().apply(new Greyscale().apply(new Sepia().apply(before)));
+    assertArrayEquals(expected.getPixels(), toImage(model.convertImage()).getPixels());
+  }
+
+  @Test
+  public void onlySeededMosaicsAreCached() {
+    Model model = new Model();
+    model.generateHorizontalRainbow(70, 50);
+    model.mosaic(30);
+    model.undoImage();
+    model.mosaic(30);
+    assertTrue(model.getCacheStatistics(),
+            model.getCacheStatistics().startsWith("0 cache hits, 0 misses (0%), 0 results"));
+
+    model.undoImage();
+    model.mosaic(30, 7L);
+    Image seeded = toImage(model.convertImage());
+    model.undoImage();
+    model.mosaic(30, 7L);
+    assertArrayEquals(seeded.getPixels(), toImage(model.convertImage()).getPixels());
+    assertTrue(model.getCacheStatistics(),
+            model.getCacheStatistics().startsWith("1 cache hits, 1 misses (50%), 1 results"));
+  }
+
+  @Test
+  public void cancelledBeforeRunningLeavesTheModelUnchanged() throws Exception {
+    Model model = new Model();
+    model.generateHorizontalRainbow(70, 50);
+    Image before = toImage(model.convertImage());
+
+    CountDownLatch blocked = new CountDownLatch(1);
+    model.enqueue(() -> await(blocked), new TaskMonitor());
+    CompletableFuture<BufferedImage> first = model.submit("blur", model::blur,
+            new TaskMonitor());
+    CompletableFuture<BufferedImage> second = model.submit("blur", model::blur,
+            new TaskMonitor());
+    blocked.countDown();
+
+    Image blurred = new Blur().apply(before);
+    assertArrayEquals(blurred.getPixels(), toImage(second.get(10, TimeUnit.SECONDS)).getPixels());
+    assertTrue(first.isCancelled());
+    // Only one blur was applied.
+    model.undoImage();
+    assertArrayEquals(before.getPixels(), toImage(model.convertImage()).getPixels());
+    assertNoUndo(model);
+  }
+
+  @Test
+  public void cancelledPartWayLeavesTheModelUnchanged() throws Exception {
+    Model model = new Model();
+    model.generateVerticalRainbow(70, 50);
+    Image before = toImage(model.convertImage());
+
+    TaskMonitor monitor = new TaskMonitor();
+    CompletableFuture<BufferedImage> future = model.enqueue(() -> {
+      monitor.cancel();
+      model.blur();
+    }, monitor);
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("The operation was not cancelled");
+    } catch (CancellationException e) {
+      assertTrue(future.isCancelled());
+    }
+    assertArrayEquals(before.getPixels(), toImage(model.convertImage()).getPixels());
+    assertNoUndo(model);
+  }
+
+  @Test
+  public void operationsOfAnotherKindAreNotCancelled() throws Exception {
+    Model model = new Model();
+    model.generateHorizontalRainbow(70, 50);
+    Image before = toImage(model.convertImage());
+
+    CountDownLatch blocked = new CountDownLatch(1);
+    model.enqueue(() -> await(blocked), new TaskMonitor());
+    CompletableFuture<BufferedImage> sepia = model.submit("sepia", model::sepia,
+            new TaskMonitor());
+    CompletableFuture<BufferedImage> blur = model.submit("blur", model::blur,
+            new TaskMonitor());
+    blocked.countDown();
+
+    Image expected = new Blur().apply(new Sepia().apply(before));
+    assertArrayEquals(expected.getPixels(), toImage(blur.get(10, TimeUnit.SECONDS)).getPixels());
+    assertFalse(sepia.isCancelled());
+  }
+
+  @Test
+  public void unchangedImageIsNotConvertedAgain() throws Exception {
+    Model model = new Model();
+    model.generateHorizontalRainbow(70, 50);
+    assertNull(model.enqueue(() -> { }, new TaskMonitor()).get(10, TimeUnit.SECONDS));
+    assertNotNull(model.enqueue(model::sepia, new TaskMonitor()).get(10, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Checks that the model has nothing to undo.
+   *
+   * @param model           The model.
+   */
+  private static void assertNoUndo(Model model) {
+    try {
+      model.undoImage();
+      fail("There was an operation to undo");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Waits for a latch to be counted down, on the model's worker thread.
+   *
+   * @param latch           The latch.
+   */
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Converts an image shown by the view back into an image.
+   *
+   * @param image           The image, as the view shows it.
+   * @return                The image.
+   */
+  static Image toImage(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] &= 0xFFFFFF;
+    }
+    return new ImagePacked(width, height, pixels);
+  }
+}
@@ -0,0 +1,136 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import image.Image;
+import transformations.Mosaic;
+import transformations.ResultCache;
+import transformations.RowExecutor;
+
+/**
+ * Tests that a mosaic gives exactly the image a full scan of every seed would give, however
+ * its rows are split.
+ */
+public class MosaicTest {
+
+  @Test
+  public void matchesAFullScan() {
+    Image image = TestImages.randomImage(91, 67, 1);
+    assertArrayEquals(mosaic(image, 40, 101L), new Mosaic(40, 101L).apply(image).getPixels());
+  }
+
+  @Test
+  public void matchesAFullScanInParallel() {
+    int[][] sizes = {{1, 1}, {3, 500}, {257, 190}, {400, 300}};
+    for (int[] size : sizes) {
+      Image image = TestImages.randomImage(size[0], size[1], size[0] + size[1]);
+      for (int threads : new int[] {2, 3, 8}) {
+        // A random seed of its own for each run, so no run finds the clusters already cached.
+        long rngSeed = 1000L * size[0] + threads;
+        RowExecutor executor = new RowExecutor(threads, 1);
+        try {
+          assertArrayEquals(size[0] + "x" + size[1] + " on " + threads + " threads",
+                  mosaic(image, 50, rngSeed),
+                  new Mosaic(50, rngSeed).apply(image, executor).getPixels());
+        } finally {
+          executor.shutdown();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void cachedClustersGiveTheSameMosaic() {
+    // The first image computes the clusters, and the others of the same size reuse them.
+    for (long seed = 10; seed < 13; seed++) {
+      Image image = TestImages.randomImage(150, 110, seed);
+      assertArrayEquals("image " + seed, mosaic(image, 60, 202L),
+              new Mosaic(60, 202L).apply(image).getPixels());
+    }
+    Image image = TestImages.randomImage(150, 110, 10);
+    RowExecutor executor = new RowExecutor(4, 1);
+    try {
+      assertArrayEquals(new Mosaic(60, 202L).apply(image).getPixels(),
+              new Mosaic(60, 202L).apply(image, executor).getPixels());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void seededMosaicsAreEqual() {
+    assertEquals(new Mosaic(60, 5L), new Mosaic(60, 5L));
+    assertEquals(new Mosaic(60, 5L).hashCode(), new Mosaic(60, 5L).hashCode());
+    assertNotEquals(new Mosaic(60, 5L), new Mosaic(60, 6L));
+    assertNotEquals(new Mosaic(60, 5L), new Mosaic(61, 5L));
+    assertNotEquals(new Mosaic(60), new Mosaic(60));
+  }
+
+  @Test
+  public void onlySeededMosaicsAreCached() {
+    assertTrue(ResultCache.isCacheable(new Mosaic(60, 5L)));
+    assertFalse(ResultCache.isCacheable(new Mosaic(60)));
+  }
+
+  /**
+   * Builds a mosaic the slow way: each pixel joins the cluster of the closest seed, found by
+   * measuring the distance to every seed and keeping the lowest index on a tie, and takes the
+   * average color of its cluster.
+   *
+   * @param image           The image.
+   * @param seeds           The number of seeds.
+   * @param rngSeed         The seed of the random number generator that places the seeds.
+   * @return                The pixels of the mosaic.
+   */
+  static int[] mosaic(Image image, int seeds, long rngSeed) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Random random = new Random(rngSeed);
+    int[] seedsX = new int[seeds];
+    int[] seedsY = new int[seeds];
+    for (int i = 0; i < seeds; i++) {
+      seedsX[i] = random.nextInt(width);
+      seedsY[i] = random.nextInt(height);
+    }
+
+    int[] pixels = image.getPixels();
+    int[] clusters = new int[pixels.length];
+    long[] totals = new long[4 * seeds];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < seeds; i++) {
+          long dx = seedsX[i] - x;
+          long dy = seedsY[i] - y;
+          if (dx * dx + dy * dy < bestDistance) {
+            best = i;
+            bestDistance = dx * dx + dy * dy;
+          }
+        }
+        int color = pixels[y * width + x];
+        clusters[y * width + x] = best;
+        totals[4 * best] += 1;
+        totals[4 * best + 1] += (color >> 16) & 0xFF;
+        totals[4 * best + 2] += (color >> 8) & 0xFF;
+        totals[4 * best + 3] += color & 0xFF;
+      }
+    }
+
+    int[] result = new int[pixels.length];
+    for (int j = 0; j < pixels.length; j++) {
+      int cluster = clusters[j];
+      long quantity = totals[4 * cluster];
+      result[j] = (int) (totals[4 * cluster + 1] / quantity) << 16
+              | (int) (totals[4 * cluster + 2] / quantity) << 8
+              | (int) (totals[4 * cluster + 3] / quantity);
+    }
+    return result;
+  }
+}
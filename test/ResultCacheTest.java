@@ -0,0 +1,111 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import image.Image;
+import image.ImagePacked;
+import transformations.Blur;
+import transformations.Mosaic;
+import transformations.ResultCache;
+import transformations.RowExecutor;
+import transformations.Sharpen;
+
+/**
+ * Tests that the result cache only returns a result for an image with the same content and an
+ * equal transformation, and that the result is the one a fresh computation gives.
+ */
+public class ResultCacheTest {
+
+  private static final long CAPACITY = 64L << 20;
+
+  @Test
+  public void hitMatchesAFreshComputation() {
+    ResultCache cache = new ResultCache(CAPACITY);
+    Image image = TestImages.randomImage(80, 60, 1);
+    cache.put(image, new Blur(), new Blur().apply(image), RowExecutor.SEQUENTIAL);
+
+    Image copy = copy(image);
+    Image cached = cache.get(copy, new Blur(), RowExecutor.SEQUENTIAL);
+    assertNotNull(cached);
+    assertArrayEquals(new Blur().apply(copy).getPixels(), cached.getPixels());
+    assertEquals(1, cache.getHits());
+    assertEquals(0, cache.getMisses());
+  }
+
+  @Test
+  public void missesOtherContentSizeOrTransformation() {
+    ResultCache cache = new ResultCache(CAPACITY);
+    Image image = TestImages.randomImage(80, 60, 2);
+    cache.put(image, new Blur(), new Blur().apply(image), RowExecutor.SEQUENTIAL);
+
+    int[] pixels = image.getPixels();
+    pixels[pixels.length / 2] ^= 1;
+    assertNull(cache.get(new ImagePacked(80, 60, pixels), new Blur(), RowExecutor.SEQUENTIAL));
+    assertNull(cache.get(new ImagePacked(60, 80, image.getPixels()), new Blur(),
+            RowExecutor.SEQUENTIAL));
+    assertNull(cache.get(image, new Sharpen(), RowExecutor.SEQUENTIAL));
+    assertEquals(0, cache.getHits());
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void hashIsTheSameInParallel() {
+    Image image = TestImages.randomImage(300, 700, 3);
+    RowExecutor executor = new RowExecutor(4, 1000);
+    try {
+      assertArrayEquals(new ResultCache(0).hash(image, RowExecutor.SEQUENTIAL),
+              new ResultCache(0).hash(copy(image), executor));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void unseededMosaicIsNeverCached() {
+    ResultCache cache = new ResultCache(CAPACITY);
+    Image image = TestImages.randomImage(80, 60, 4);
+    Mosaic mosaic = new Mosaic(20);
+    cache.put(image, mosaic, mosaic.apply(image), RowExecutor.SEQUENTIAL);
+    assertNull(cache.get(image, mosaic, RowExecutor.SEQUENTIAL));
+    assertEquals(0, cache.getCount());
+    assertEquals(0, cache.getMisses());
+  }
+
+  @Test
+  public void dropsTheLeastRecentlyUsedResult() {
+    Image first = TestImages.randomImage(80, 60, 5);
+    Image second = TestImages.randomImage(80, 60, 6);
+    Image third = TestImages.randomImage(80, 60, 7);
+    Image result = new Blur().apply(first);
+    ResultCache cache = new ResultCache(2 * result.getByteSize());
+    cache.put(first, new Blur(), result, RowExecutor.SEQUENTIAL);
+    cache.put(second, new Blur(), new Blur().apply(second), RowExecutor.SEQUENTIAL);
+    assertSame(result, cache.get(first, new Blur(), RowExecutor.SEQUENTIAL));
+    cache.put(third, new Blur(), new Blur().apply(third), RowExecutor.SEQUENTIAL);
+
+    assertSame(result, cache.get(first, new Blur(), RowExecutor.SEQUENTIAL));
+    assertNull(cache.get(second, new Blur(), RowExecutor.SEQUENTIAL));
+    assertNotNull(cache.get(third, new Blur(), RowExecutor.SEQUENTIAL));
+    assertEquals(2, cache.getCount());
+    assertEquals(2 * result.getByteSize(), cache.getSize());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeCapacity() {
+    new ResultCache(-1);
+  }
+
+  /**
+   * Copies an image into a new image object with the same content.
+   *
+   * @param image           The image.
+   * @return                The copy.
+   */
+  private static Image copy(Image image) {
+    return new ImagePacked(image.getWidth(), image.getHeight(), image.getPixels());
+  }
+}
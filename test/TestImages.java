@@ -0,0 +1,27 @@
+import java.util.Random;
+
+import image.Image;
+import image.ImagePacked;
+
+/**
+ * This class contains utility methods to create the images the tests work on.
+ */
+class TestImages {
+
+  /**
+   * Creates an image of random pixels.
+   *
+   * @param width           The width of the image.
+   * @param height          The height of the image.
+   * @param seed            The seed of the random pixels.
+   * @return                The image.
+   */
+  static Image randomImage(int width, int height, long seed) {
+    Random random = new Random(seed);
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = random.nextInt(1 << 24);
+    }
+    return new ImagePacked(width, height, pixels);
+  }
+}
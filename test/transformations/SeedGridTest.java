@@ -0,0 +1,89 @@
+package transformations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the seed grid finds exactly the seed a full scan of every seed would find.
+ */
+public class SeedGridTest {
+
+  @Test
+  public void matchesBruteForce() {
+    Random random = new Random(7);
+    int[][] sizes = {{1, 1}, {1, 50}, {50, 1}, {64, 48}, {200, 30}, {97, 131}};
+    int[] seedCounts = {1, 2, 5, 40, 500};
+    for (int[] size : sizes) {
+      for (int seeds : seedCounts) {
+        assertMatchesBruteForce(size[0], size[1], seeds, random);
+      }
+    }
+  }
+
+  @Test
+  public void tiesGoToTheLowestIndex() {
+    // Every seed sits on the same few pixels, so most searches are ties.
+    int[] seedsX = {3, 3, 10, 10, 3, 10};
+    int[] seedsY = {4, 4, 4, 4, 12, 12};
+    SeedGrid grid = new SeedGrid(seedsX, seedsY, 14, 16);
+    for (int y = 0; y < 16; y++) {
+      for (int x = 0; x < 14; x++) {
+        assertEquals("pixel " + x + "," + y, findClosest(seedsX, seedsY, x, y),
+                grid.findClosest(x, y));
+      }
+    }
+  }
+
+  /**
+   * Places seeds at random, with repeats, in an image of the given size, and checks every
+   * pixel against a full scan.
+   *
+   * @param width           The width of the image.
+   * @param height          The height of the image.
+   * @param seeds           The number of seeds.
+   * @param random          The random number generator the seeds are placed with.
+   */
+  private static void assertMatchesBruteForce(int width, int height, int seeds, Random random) {
+    int[] seedsX = new int[seeds];
+    int[] seedsY = new int[seeds];
+    for (int i = 0; i < seeds; i++) {
+      seedsX[i] = random.nextInt(width);
+      seedsY[i] = random.nextInt(height);
+    }
+    SeedGrid grid = new SeedGrid(seedsX, seedsY, width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        assertEquals(width + "x" + height + ", " + seeds + " seeds, pixel " + x + "," + y,
+                findClosest(seedsX, seedsY, x, y), grid.findClosest(x, y));
+      }
+    }
+  }
+
+  /**
+   * Finds the closest seed to a pixel by measuring the distance to every seed, keeping the
+   * lowest index on a tie.
+   *
+   * @param seedsX          The x location of each seed.
+   * @param seedsY          The y location of each seed.
+   * @param x               The x location of the pixel.
+   * @param y               The y location of the pixel.
+   * @return                The index of the closest seed.
+   */
+  private static int findClosest(int[] seedsX, int[] seedsY, int x, int y) {
+    int best = 0;
+    long bestDistance = Long.MAX_VALUE;
+    for (int i = 0; i < seedsX.length; i++) {
+      long dx = seedsX[i] - x;
+      long dy = seedsY[i] - y;
+      long distance = dx * dx + dy * dy;
+      if (distance < bestDistance) {
+        best = i;
+        bestDistance = distance;
+      }
+    }
+    return best;
+  }
+}